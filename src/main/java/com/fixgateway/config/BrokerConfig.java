@@ -26,6 +26,165 @@ public class BrokerConfig {
      */
     private List<BrokerSessionConfig> brokers = new ArrayList<>();
 
+    /**
+     * 入站消息环形缓冲区配置
+     */
+    private EventBusConfig eventBus = new EventBusConfig();
+
+    /**
+     * 实时请求准入控制配置
+     */
+    private AdmissionConfig admission = new AdmissionConfig();
+
+    /**
+     * 交互式与批量请求的分道配置
+     */
+    private LaneConfig lanes = new LaneConfig();
+
+    /**
+     * 请求分阶段耗时追踪配置
+     */
+    private TracingConfig tracing = new TracingConfig();
+
+    /**
+     * initiator分片配置
+     */
+    private ShardingConfig sharding = new ShardingConfig();
+
+    /**
+     * 入站成交报告去重配置
+     */
+    private DedupConfig dedup = new DedupConfig();
+
+    /**
+     * 本地成交查询引擎配置
+     */
+    private QueryEngineConfig queryEngine = new QueryEngineConfig();
+
+    /**
+     * 启动预热配置
+     */
+    private WarmupConfig warmup = new WarmupConfig();
+
+    @Data
+    public static class EventBusConfig {
+        /**
+         * 环形缓冲区槽位数，必须为2的幂
+         */
+        private int bufferSize = 65536;
+    }
+
+    @Data
+    public static class AdmissionConfig {
+        /**
+         * 是否启用准入控制
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个broker的初始并发限制
+         */
+        private int initialLimit = 20;
+
+        /**
+         * 并发限制下限
+         */
+        private int minLimit = 1;
+
+        /**
+         * 并发限制上限
+         */
+        private int maxLimit = 200;
+    }
+
+    @Data
+    public static class LaneConfig {
+        /**
+         * 每个broker批量请求的初始并发限制（交互式请求使用admission中的限制）
+         */
+        private int bulkInitialLimit = 4;
+
+        /**
+         * 每个broker批量请求的并发限制上限
+         */
+        private int bulkMaxLimit = 8;
+
+        /**
+         * 两类请求都在排队时批量请求至少获得的发送份额
+         */
+        private double bulkMinShare = 0.2;
+    }
+
+    @Data
+    public static class ShardingConfig {
+        /**
+         * initiator分片（消息处理线程）数量，0表示使用CPU核数
+         */
+        private int initiatorShards = 0;
+    }
+
+    @Data
+    public static class DedupConfig {
+        /**
+         * 是否丢弃重复的TradeCaptureReport
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个broker精确保留的最近报告键数量，更早的重复报告不再识别
+         */
+        private int exactWindowSize = 100_000;
+    }
+
+    @Data
+    public static class QueryEngineConfig {
+        /**
+         * 保留的交易日数（含当日），更早的成交定期淘汰
+         */
+        private int retentionDays = 7;
+    }
+
+    @Data
+    public static class WarmupConfig {
+        /**
+         * 是否在报告就绪之前预热
+         */
+        private boolean enabled = false;
+
+        /**
+         * 合成请求的迭代次数
+         */
+        private int iterations = 20_000;
+
+        /**
+         * 预热的最长时间（秒），超时后提前结束
+         */
+        private int maxDurationSeconds = 60;
+
+        /**
+         * 统计延迟分位数的窗口大小（迭代次数），比较第一个与最后一个窗口
+         */
+        private int reportWindow = 1_000;
+    }
+
+    @Data
+    public static class TracingConfig {
+        /**
+         * 是否启用追踪
+         */
+        private boolean enabled = true;
+
+        /**
+         * 慢请求阈值（毫秒），超过阈值的请求保存完整追踪
+         */
+        private long slowThresholdMillis = 1000;
+
+        /**
+         * 保留的慢请求追踪数量
+         */
+        private int slowTraceCapacity = 100;
+    }
+
     @Data
     public static class SessionConfig {
         private String senderCompId;
@@ -142,6 +301,26 @@ public class BrokerConfig {
          * 数据字典文件
          */
         private String dataDictionary = "FIX44.xml";
+
+        /**
+         * 是否启用当日成交的后台预取
+         */
+        private boolean prefetchEnabled = false;
+
+        /**
+         * 预取间隔（秒）
+         */
+        private int prefetchIntervalSeconds = 30;
+
+        /**
+         * broker允许的最大请求速率（每秒请求数），预取与实时请求共享该额度
+         */
+        private double maxRequestsPerSecond = 5;
+
+        /**
+         * 本地数据可接受的最大陈旧时间（秒），超过则回退到实时FIX请求
+         */
+        private int maxStalenessSeconds = 60;
     }
 }
 
@@ -11,6 +11,7 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -24,14 +25,14 @@ public class FixSessionConfig {
     private com.fixgateway.service.FixApplication fixApplication;
 
     /**
-     * 存储每个broker的initiator，key为brokerId
+     * initiator分片池，所有broker session分散在固定数量的SocketInitiator上
      */
-    private final Map<String, SocketInitiator> initiators = new HashMap<>();
+    private InitiatorShardPool shardPool;
     
     /**
      * 存储每个broker的SessionID，key为brokerId
      */
-    private final Map<String, SessionID> sessionIds = new HashMap<>();
+    private final Map<String, SessionID> sessionIds = new ConcurrentHashMap<>();
     
     /**
      * 存储已加载的配置文件，key为配置文件路径，value为SessionSettings
@@ -40,10 +41,19 @@ public class FixSessionConfig {
     private final Map<String, SessionSettings> loadedConfigFiles = new HashMap<>();
     
     /**
-     * 存储配置文件对应的initiator，key为配置文件路径，value为SocketInitiator
-     * 用于支持多个broker共享同一个配置文件和initiator
+     * 存储每个broker的配置，key为brokerId
      */
-    private final Map<String, SocketInitiator> configFileInitiators = new HashMap<>();
+    private final Map<String, BrokerConfig.BrokerSessionConfig> brokerSessionConfigs = new ConcurrentHashMap<>();
+
+    /**
+     * 存储每个broker使用的SessionSettings，key为brokerId
+     */
+    private final Map<String, SessionSettings> brokerSettings = new ConcurrentHashMap<>();
+
+    /**
+     * session未运行时按DataDictionary文件路径缓存的字典
+     */
+    private final Map<String, DataDictionary> dataDictionaries = new ConcurrentHashMap<>();
 
     /**
      * 从QuickFixJ配置文件加载SessionSettings
@@ -205,7 +215,9 @@ public class FixSessionConfig {
             }
         }
         
-        // 为每个broker创建并启动initiator
+        shardPool = new InitiatorShardPool(fixApplication, maxInitiatorShards());
+        
+        // 将每个broker的session分配到initiator分片
         for (BrokerConfig.BrokerSessionConfig brokerSessionConfig : brokerConfigs) {
             try {
                 String brokerId = brokerSessionConfig.getBrokerId();
@@ -214,149 +226,157 @@ public class FixSessionConfig {
                     continue;
                 }
                 
-                log.info("Starting FIX Initiator for broker: {}", brokerId);
-                
-                // 优先使用QuickFixJ配置文件
-                SessionSettings settings;
-                SessionID sessionId;
-                
-                if (brokerSessionConfig.getConfigFile() != null && !brokerSessionConfig.getConfigFile().isEmpty()) {
-                    // 从配置文件加载（支持缓存，多个broker可以共享同一个配置文件）
-                    settings = loadSessionSettingsFromFile(brokerSessionConfig.getConfigFile());
-                    
-                    // 从配置文件中查找匹配的SessionID
-                    // 如果配置了SessionID信息，则精确匹配；否则使用第一个可用的SessionID
-                    sessionId = null;
-                    if (brokerSessionConfig.getBeginString() != null && 
-                        brokerSessionConfig.getSenderCompId() != null && 
-                        brokerSessionConfig.getTargetCompId() != null) {
-                        // 精确匹配指定的SessionID
-                        sessionId = findSessionIdInSettings(
-                            settings,
-                            brokerSessionConfig.getBeginString(),
-                            brokerSessionConfig.getSenderCompId(),
-                            brokerSessionConfig.getTargetCompId()
-                        );
-                        if (sessionId == null) {
-                            throw new ConfigError(String.format(
-                                "Session not found in configuration file %s with BeginString=%s, SenderCompID=%s, TargetCompID=%s",
-                                brokerSessionConfig.getConfigFile(),
-                                brokerSessionConfig.getBeginString(),
-                                brokerSessionConfig.getSenderCompId(),
-                                brokerSessionConfig.getTargetCompId()
-                            ));
-                        }
-                        log.info("Matched SessionID from configuration file for broker {}: {}", brokerId, sessionId);
-                    } else {
-                        // 如果没有指定SessionID信息，使用第一个可用的SessionID
-                        java.util.Iterator<SessionID> sessionIterator = settings.sectionIterator();
-                        if (sessionIterator.hasNext()) {
-                            sessionId = sessionIterator.next();
-                            log.info("Using first available SessionID from configuration file for broker {}: {}", brokerId, sessionId);
-                        } else {
-                            throw new ConfigError("No session found in configuration file: " + brokerSessionConfig.getConfigFile());
-                        }
-                    }
-                } else {
-                    // 使用代码方式创建配置（向后兼容）
-                    settings = createSessionSettings(brokerSessionConfig);
-                    sessionId = new SessionID(
-                        brokerSessionConfig.getBeginString(),
-                        brokerSessionConfig.getSenderCompId(),
-                        brokerSessionConfig.getTargetCompId()
-                    );
-                }
-                
-                // 如果使用配置文件，检查是否已经有该配置文件的initiator
-                SocketInitiator initiator = null;
-                if (brokerSessionConfig.getConfigFile() != null && !brokerSessionConfig.getConfigFile().isEmpty()) {
-                    // 如果该配置文件已经有initiator，则复用
-                    initiator = configFileInitiators.get(brokerSessionConfig.getConfigFile());
-                }
+                log.info("Assigning FIX session for broker: {}", brokerId);
                 
-                if (initiator == null) {
-                    // 创建新的initiator
-                    MessageStoreFactory messageStoreFactory = new MemoryStoreFactory();
-                    LogFactory logFactory = new FileLogFactory(settings);
-                    MessageFactory messageFactory = new DefaultMessageFactory();
-                    
-                    initiator = new SocketInitiator(
-                        fixApplication, 
-                        messageStoreFactory, 
-                        settings, 
-                        logFactory, 
-                        messageFactory
-                    );
-                    
-                    initiator.start();
-                    
-                    // 如果使用配置文件，缓存initiator以便其他broker复用
-                    if (brokerSessionConfig.getConfigFile() != null && !brokerSessionConfig.getConfigFile().isEmpty()) {
-                        configFileInitiators.put(brokerSessionConfig.getConfigFile(), initiator);
-                        log.info("Created and cached SocketInitiator for configuration file: {}", brokerSessionConfig.getConfigFile());
-                    }
-                } else {
-                    log.info("Reusing existing SocketInitiator for configuration file: {}", brokerSessionConfig.getConfigFile());
-                }
-                
-                initiators.put(brokerId, initiator);
-                sessionIds.put(brokerId, sessionId);
-                
-                log.info("FIX Initiator started successfully for broker: {} (SessionID: {})", 
-                    brokerId, sessionId);
+                SessionSettings settings = resolveSessionSettings(brokerSessionConfig);
+                SessionID sessionId = resolveSessionId(brokerSessionConfig, settings);
+                fixApplication.registerSession(sessionId, brokerId);
+                SessionSettings shardSettings = shardPool.assign(sessionId, settings);
+                registerBroker(brokerId, brokerSessionConfig, sessionId, shardSettings);
             } catch (Exception e) {
-                log.error("Failed to start FIX Initiator for broker: {}", 
+                log.error("Failed to configure FIX session for broker: {}", 
                     brokerSessionConfig.getBrokerId(), e);
-                // 继续启动其他broker，不中断整个流程
+                // 继续配置其他broker，不中断整个流程
             }
         }
         
-        log.info("Total {} FIX Initiator(s) started", initiators.size());
+        // 启动所有分片
+        shardPool.start();
+        
+        log.info("Total {} broker session(s) started on {} initiator shard(s): {}",
+            sessionIds.size(), shardPool.getShardCount(), shardPool.getShardLoads());
     }
 
-    @PreDestroy
-    public void stopInitiators() {
-        log.info("Stopping all FIX Initiators...");
+    /**
+     * 在运行期间新增broker，其session分配到session最少的initiator分片
+     * @param brokerSessionConfig broker配置
+     * @return 新增session的SessionID
+     */
+    public synchronized SessionID addBroker(BrokerConfig.BrokerSessionConfig brokerSessionConfig) throws ConfigError {
+        String brokerId = brokerSessionConfig.getBrokerId();
+        if (brokerId == null || brokerId.isEmpty()) {
+            throw new ConfigError("Broker configuration missing broker-id");
+        }
+        if (sessionIds.containsKey(brokerId)) {
+            throw new ConfigError("Broker already configured: " + brokerId);
+        }
+        if (shardPool == null) {
+            shardPool = new InitiatorShardPool(fixApplication, maxInitiatorShards());
+        }
         
-        // 停止所有唯一的initiator（避免重复停止共享的initiator）
-        for (SocketInitiator initiator : configFileInitiators.values()) {
-            try {
-                log.info("Stopping shared SocketInitiator");
-                initiator.stop();
-                log.info("Shared SocketInitiator stopped");
-            } catch (Exception e) {
-                log.error("Error stopping shared SocketInitiator", e);
-            }
+        SessionSettings settings = resolveSessionSettings(brokerSessionConfig);
+        SessionID sessionId = resolveSessionId(brokerSessionConfig, settings);
+        // 先注册映射，保证session登录后的回调能找到brokerId
+        fixApplication.registerSession(sessionId, brokerId);
+        SessionSettings shardSettings = shardPool.add(sessionId, settings);
+        registerBroker(brokerId, brokerSessionConfig, sessionId, shardSettings);
+        log.info("Broker {} added (SessionID: {}), initiator shard loads: {}", brokerId, sessionId, shardPool.getShardLoads());
+        return sessionId;
+    }
+
+    /**
+     * initiator分片数上限，配置为0时使用CPU核数
+     */
+    private int maxInitiatorShards() {
+        int initiatorShards = brokerConfig.getSharding().getInitiatorShards();
+        return initiatorShards > 0 ? initiatorShards : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 获取各initiator分片上的session数，key为分片序号
+     */
+    public Map<Integer, Integer> getShardLoads() {
+        return shardPool != null ? shardPool.getShardLoads() : Map.of();
+    }
+
+    /**
+     * 加载broker的SessionSettings：优先使用QuickFixJ配置文件，否则由代码方式创建（向后兼容）
+     */
+    private SessionSettings resolveSessionSettings(BrokerConfig.BrokerSessionConfig brokerSessionConfig) throws ConfigError {
+        if (brokerSessionConfig.getConfigFile() != null && !brokerSessionConfig.getConfigFile().isEmpty()) {
+            // 从配置文件加载（支持缓存，多个broker可以共享同一个配置文件）
+            return loadSessionSettingsFromFile(brokerSessionConfig.getConfigFile());
+        }
+        return createSessionSettings(brokerSessionConfig);
+    }
+
+    /**
+     * 确定broker使用的SessionID
+     * 如果配置了SessionID信息，则精确匹配；否则使用配置文件中的第一个SessionID
+     */
+    private SessionID resolveSessionId(BrokerConfig.BrokerSessionConfig brokerSessionConfig,
+                                       SessionSettings settings) throws ConfigError {
+        String brokerId = brokerSessionConfig.getBrokerId();
+        if (brokerSessionConfig.getConfigFile() == null || brokerSessionConfig.getConfigFile().isEmpty()) {
+            return new SessionID(
+                brokerSessionConfig.getBeginString(),
+                brokerSessionConfig.getSenderCompId(),
+                brokerSessionConfig.getTargetCompId()
+            );
         }
         
-        // 停止独立的initiator（不使用配置文件的）
-        for (Map.Entry<String, SocketInitiator> entry : initiators.entrySet()) {
-            String brokerId = entry.getKey();
-            SocketInitiator initiator = entry.getValue();
-            // 如果这个initiator不在configFileInitiators中，说明是独立的，需要单独停止
-            if (!configFileInitiators.containsValue(initiator)) {
-                try {
-                    log.info("Stopping FIX Initiator for broker: {}", brokerId);
-                    initiator.stop();
-                    log.info("FIX Initiator stopped for broker: {}", brokerId);
-                } catch (Exception e) {
-                    log.error("Error stopping FIX Initiator for broker: {}", brokerId, e);
-                }
+        if (brokerSessionConfig.getBeginString() != null && 
+            brokerSessionConfig.getSenderCompId() != null && 
+            brokerSessionConfig.getTargetCompId() != null) {
+            // 精确匹配指定的SessionID
+            SessionID sessionId = findSessionIdInSettings(
+                settings,
+                brokerSessionConfig.getBeginString(),
+                brokerSessionConfig.getSenderCompId(),
+                brokerSessionConfig.getTargetCompId()
+            );
+            if (sessionId == null) {
+                throw new ConfigError(String.format(
+                    "Session not found in configuration file %s with BeginString=%s, SenderCompID=%s, TargetCompID=%s",
+                    brokerSessionConfig.getConfigFile(),
+                    brokerSessionConfig.getBeginString(),
+                    brokerSessionConfig.getSenderCompId(),
+                    brokerSessionConfig.getTargetCompId()
+                ));
             }
+            log.info("Matched SessionID from configuration file for broker {}: {}", brokerId, sessionId);
+            return sessionId;
+        }
+        
+        // 如果没有指定SessionID信息，使用第一个可用的SessionID
+        java.util.Iterator<SessionID> sessionIterator = settings.sectionIterator();
+        if (!sessionIterator.hasNext()) {
+            throw new ConfigError("No session found in configuration file: " + brokerSessionConfig.getConfigFile());
+        }
+        SessionID sessionId = sessionIterator.next();
+        log.info("Using first available SessionID from configuration file for broker {}: {}", brokerId, sessionId);
+        return sessionId;
+    }
+
+    private void registerBroker(String brokerId, BrokerConfig.BrokerSessionConfig brokerSessionConfig,
+                                SessionID sessionId, SessionSettings shardSettings) {
+        sessionIds.put(brokerId, sessionId);
+        brokerSessionConfigs.put(brokerId, brokerSessionConfig);
+        brokerSettings.put(brokerId, shardSettings);
+        log.info("FIX session assigned for broker: {} (SessionID: {})", brokerId, sessionId);
+    }
+
+    @PreDestroy
+    public void stopInitiators() {
+        log.info("Stopping all FIX Initiators...");
+        
+        if (shardPool != null) {
+            shardPool.stop();
         }
         
-        initiators.clear();
         sessionIds.clear();
+        brokerSessionConfigs.clear();
+        brokerSettings.clear();
         loadedConfigFiles.clear();
-        configFileInitiators.clear();
         log.info("All FIX Initiators stopped");
     }
 
     /**
-     * 根据brokerId获取对应的SocketInitiator
+     * 根据brokerId获取其session所在分片的SocketInitiator
      */
     public SocketInitiator getInitiator(String brokerId) {
-        return initiators.get(brokerId);
+        SessionID sessionId = sessionIds.get(brokerId);
+        return sessionId != null && shardPool != null ? shardPool.getInitiator(sessionId) : null;
     }
 
     /**
@@ -366,18 +386,103 @@ public class FixSessionConfig {
         return sessionIds.get(brokerId);
     }
 
+    /**
+     * 根据brokerId获取对应的broker配置
+     */
+    public BrokerConfig.BrokerSessionConfig getBrokerSessionConfig(String brokerId) {
+        return brokerSessionConfigs.get(brokerId);
+    }
+
+    /**
+     * 根据brokerId获取其session的FileLogPath（QuickFIX/J消息日志目录）
+     * @return FileLogPath，如果broker不存在或未配置FileLog则返回null
+     */
+    public String getFileLogPath(String brokerId) {
+        SessionSettings settings = brokerSettings.get(brokerId);
+        SessionID sessionId = sessionIds.get(brokerId);
+        if (settings == null || sessionId == null) {
+            return null;
+        }
+        try {
+            return settings.isSetting(sessionId, FileLogFactory.SETTING_FILE_LOG_PATH)
+                    ? settings.getString(sessionId, FileLogFactory.SETTING_FILE_LOG_PATH) : null;
+        } catch (ConfigError e) {
+            return null;
+        }
+    }
+
+    /**
+     * 根据brokerId获取其session使用的DataDictionary文件
+     * 未配置DataDictionary时与QuickFIX/J一致，按BeginString取默认字典（如FIX44.xml）
+     * @return DataDictionary文件路径，如果broker不存在则返回null
+     */
+    public String getDataDictionary(String brokerId) {
+        SessionSettings settings = brokerSettings.get(brokerId);
+        SessionID sessionId = sessionIds.get(brokerId);
+        if (settings == null || sessionId == null) {
+            return null;
+        }
+        try {
+            if (settings.isSetting(sessionId, Session.SETTING_DATA_DICTIONARY)) {
+                return settings.getString(sessionId, Session.SETTING_DATA_DICTIONARY);
+            }
+        } catch (ConfigError e) {
+            log.debug("Error reading DataDictionary setting for broker: {}", brokerId, e);
+        }
+        return sessionId.getBeginString().replace(".", "") + ".xml";
+    }
+
+    /**
+     * 根据brokerId获取解析其消息使用的DataDictionary
+     * 优先使用运行中session的字典，session未创建时按其配置的DataDictionary加载
+     * @return DataDictionary
+     * @throws IllegalArgumentException broker不存在
+     */
+    public DataDictionary getSessionDataDictionary(String brokerId) throws ConfigError {
+        SessionID sessionId = sessionIds.get(brokerId);
+        Session session = sessionId != null ? Session.lookupSession(sessionId) : null;
+        DataDictionaryProvider provider = session != null ? session.getDataDictionaryProvider() : null;
+        if (provider != null) {
+            DataDictionary dataDictionary = provider.getSessionDataDictionary(sessionId.getBeginString());
+            if (dataDictionary != null) {
+                return dataDictionary;
+            }
+        }
+
+        String path = getDataDictionary(brokerId);
+        if (path == null) {
+            throw new IllegalArgumentException("Unknown broker: " + brokerId);
+        }
+        DataDictionary dataDictionary = dataDictionaries.get(path);
+        if (dataDictionary == null) {
+            dataDictionary = new DataDictionary(path);
+            DataDictionary existing = dataDictionaries.putIfAbsent(path, dataDictionary);
+            if (existing != null) {
+                dataDictionary = existing;
+            }
+        }
+        return dataDictionary;
+    }
+
     /**
      * 获取所有已配置的brokerId列表
      */
     public List<String> getBrokerIds() {
-        return initiators.keySet().stream().collect(Collectors.toList());
+        return sessionIds.keySet().stream().collect(Collectors.toList());
     }
 
     /**
      * 获取所有initiator的映射
      */
     public Map<String, SocketInitiator> getAllInitiators() {
-        return new HashMap<>(initiators);
+        Map<String, SocketInitiator> allInitiators = new HashMap<>();
+        for (String brokerId : sessionIds.keySet()) {
+            SocketInitiator initiator = getInitiator(brokerId);
+            if (initiator != null) {
+                allInitiators.put(brokerId, initiator);
+            }
+        }
+        return allInitiators;
     }
 
     /**
@@ -0,0 +1,175 @@
+package com.fixgateway.config;
+
+import lombok.extern.slf4j.Slf4j;
+import quickfix.Application;
+import quickfix.ConfigError;
+import quickfix.DefaultMessageFactory;
+import quickfix.Dictionary;
+import quickfix.FileLogFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.SocketInitiator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FIX session分片池
+ * 将所有broker session分散到固定数量的SocketInitiator上，每个SocketInitiator有一个独立的消息处理线程（事件循环），
+ * 线程数不随session数量增长，单个事件循环上的session数也保持均衡；新增session时分配到session最少的分片。
+ * session只增不减，按最少负载分配后各分片的session数之差不超过1，因此不做迁移式的再平衡
+ */
+@Slf4j
+class InitiatorShardPool {
+
+    private final Application application;
+    private final int maxShards;
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<SessionID, Shard> shardsBySession = new HashMap<>();
+
+    InitiatorShardPool(Application application, int maxShards) {
+        this.application = application;
+        this.maxShards = maxShards;
+    }
+
+    /**
+     * 将session分配到分片，分片在start()时统一启动
+     * @param sessionId SessionID
+     * @param sessionSettings session所在的配置（会话配置与默认配置合并后写入分片）
+     * @return session所在分片的配置
+     */
+    synchronized SessionSettings assign(SessionID sessionId, SessionSettings sessionSettings) throws ConfigError {
+        Shard shard = shardsBySession.get(sessionId);
+        if (shard != null) {
+            return shard.settings;
+        }
+        shard = leastLoadedShard();
+        shard.settings.set(sessionId, mergedDictionary(sessionId, sessionSettings));
+        shard.sessions.add(sessionId);
+        shardsBySession.put(sessionId, shard);
+        return shard.settings;
+    }
+
+    /**
+     * 启动所有尚未启动的分片
+     */
+    synchronized void start() throws ConfigError {
+        for (Shard shard : shards) {
+            if (shard.initiator == null) {
+                shard.start();
+            }
+        }
+    }
+
+    /**
+     * 在运行期间新增session：分配到session最少的分片，分片已启动时以动态session方式加入
+     * @return session所在分片的配置
+     */
+    synchronized SessionSettings add(SessionID sessionId, SessionSettings sessionSettings) throws ConfigError {
+        if (shardsBySession.containsKey(sessionId)) {
+            return shardsBySession.get(sessionId).settings;
+        }
+        SessionSettings settings = assign(sessionId, sessionSettings);
+        Shard shard = shardsBySession.get(sessionId);
+        if (shard.initiator == null) {
+            shard.start();
+        } else {
+            shard.initiator.createDynamicSession(sessionId);
+        }
+        log.info("Added session {} to initiator shard {} ({} session(s))", sessionId, shard.index, shard.sessions.size());
+        return settings;
+    }
+
+    /**
+     * 获取session所在分片的SocketInitiator
+     */
+    synchronized SocketInitiator getInitiator(SessionID sessionId) {
+        Shard shard = shardsBySession.get(sessionId);
+        return shard != null ? shard.initiator : null;
+    }
+
+    /**
+     * 各分片的session数，key为分片序号
+     */
+    synchronized Map<Integer, Integer> getShardLoads() {
+        Map<Integer, Integer> loads = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            loads.put(shard.index, shard.sessions.size());
+        }
+        return loads;
+    }
+
+    synchronized int getShardCount() {
+        return shards.size();
+    }
+
+    synchronized void stop() {
+        for (Shard shard : shards) {
+            if (shard.initiator == null) {
+                continue;
+            }
+            try {
+                log.info("Stopping initiator shard {}", shard.index);
+                shard.initiator.stop();
+            } catch (Exception e) {
+                log.error("Error stopping initiator shard {}", shard.index, e);
+            }
+        }
+        shards.clear();
+        shardsBySession.clear();
+    }
+
+    private Shard leastLoadedShard() {
+        Shard leastLoaded = null;
+        for (Shard shard : shards) {
+            if (leastLoaded == null || shard.sessions.size() < leastLoaded.sessions.size()) {
+                leastLoaded = shard;
+            }
+        }
+        // 分片数未达上限时，只有在所有分片都已有session时才新建分片
+        if (shards.size() < maxShards && (leastLoaded == null || !leastLoaded.sessions.isEmpty())) {
+            leastLoaded = new Shard(shards.size());
+            shards.add(leastLoaded);
+        }
+        return leastLoaded;
+    }
+
+    /**
+     * 以所在配置的默认配置为基础，再用会话配置覆盖
+     */
+    private static Dictionary mergedDictionary(SessionID sessionId, SessionSettings sessionSettings) throws ConfigError {
+        Dictionary merged = new Dictionary(null, sessionSettings.get().toMap());
+        merged.merge(sessionSettings.get(sessionId));
+        return merged;
+    }
+
+    private class Shard {
+        private final int index;
+        private final SessionSettings settings = new SessionSettings();
+        private final Set<SessionID> sessions = new LinkedHashSet<>();
+        private SocketInitiator initiator;
+
+        private Shard(int index) {
+            this.index = index;
+        }
+
+        private void start() throws ConfigError {
+            SocketInitiator socketInitiator = new SocketInitiator(
+                application,
+                new MemoryStoreFactory(),
+                settings,
+                new FileLogFactory(settings),
+                new DefaultMessageFactory()
+            );
+            socketInitiator.start();
+            initiator = socketInitiator;
+            log.info("Started initiator shard {} with {} session(s): {}", index, sessions.size(), sessions);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.fixgateway.config;
+
+import com.fixgateway.service.RequestTracer;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 在请求进入处理器时开始追踪，响应写出后结束追踪
+ */
+public class RequestTracingInterceptor implements HandlerInterceptor {
+
+    private final RequestTracer requestTracer;
+
+    public RequestTracingInterceptor(RequestTracer requestTracer) {
+        this.requestTracer = requestTracer;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        requestTracer.begin(request.getRequestURI());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        requestTracer.end(response.getStatus());
+    }
+}
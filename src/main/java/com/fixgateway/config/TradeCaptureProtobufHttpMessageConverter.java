@@ -0,0 +1,48 @@
+package com.fixgateway.config;
+
+import com.fixgateway.dto.TradeCaptureResponse;
+import com.fixgateway.dto.TradeQueryResponse;
+import com.fixgateway.util.TradeCaptureProtobufEncoder;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * 以Protobuf编码输出TradeCaptureResponse与TradeQueryResponse（仅支持写出）
+ */
+public class TradeCaptureProtobufHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public static final MediaType PROTOBUF = MediaType.parseMediaType("application/x-protobuf");
+
+    public TradeCaptureProtobufHttpMessageConverter() {
+        super(PROTOBUF);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return TradeCaptureResponse.class.isAssignableFrom(clazz) || TradeQueryResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Reading protobuf requests is not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object body, HttpOutputMessage outputMessage) throws IOException {
+        if (body instanceof TradeCaptureResponse) {
+            TradeCaptureProtobufEncoder.write((TradeCaptureResponse) body, outputMessage.getBody());
+        } else {
+            TradeCaptureProtobufEncoder.write((TradeQueryResponse) body, outputMessage.getBody());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.fixgateway.config;
+
+import com.fixgateway.service.RequestTracer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Web层配置
+ * 响应编码根据Accept头协商：默认JSON；application/cbor与application/x-jackson-smile
+ * 由Spring MVC在检测到jackson-dataformat-cbor/smile依赖时自动注册；application/x-protobuf由本类注册
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final RequestTracer requestTracer;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestTracingInterceptor(requestTracer))
+                .addPathPatterns("/api/trade-capture/report");
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // 追加在默认转换器之后，未指定Accept的请求仍使用JSON
+        converters.add(new TradeCaptureProtobufHttpMessageConverter());
+    }
+}
@@ -0,0 +1,58 @@
+package com.fixgateway.controller;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.config.FixSessionConfig;
+import com.fixgateway.service.TradePrefetchService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import quickfix.ConfigError;
+import quickfix.SessionID;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/brokers")
+@RequiredArgsConstructor
+public class BrokerController {
+
+    private final FixSessionConfig fixSessionConfig;
+    private final TradePrefetchService tradePrefetchService;
+
+    /**
+     * 在运行期间新增broker session，分配到session最少的initiator分片，启用了prefetch时同时开始预取
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> addBroker(@RequestBody BrokerConfig.BrokerSessionConfig brokerSessionConfig) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            SessionID sessionId = fixSessionConfig.addBroker(brokerSessionConfig);
+            tradePrefetchService.schedule(brokerSessionConfig.getBrokerId());
+            response.put("success", true);
+            response.put("brokerId", brokerSessionConfig.getBrokerId());
+            response.put("sessionId", sessionId.toString());
+            response.put("shardLoads", fixSessionConfig.getShardLoads());
+            return ResponseEntity.ok(response);
+        } catch (ConfigError e) {
+            log.warn("Failed to add broker: {}", brokerSessionConfig.getBrokerId(), e);
+            response.put("success", false);
+            response.put("errorMessage", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 各initiator分片上的session数，key为分片序号
+     */
+    @GetMapping("/shards")
+    public Map<Integer, Integer> getShardLoads() {
+        return fixSessionConfig.getShardLoads();
+    }
+}
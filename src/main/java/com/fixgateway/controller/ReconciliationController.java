@@ -0,0 +1,146 @@
+package com.fixgateway.controller;
+
+import com.fixgateway.dto.TradeQueryResponse;
+import com.fixgateway.service.ReconciliationRun;
+import com.fixgateway.service.ReconciliationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.Callable;
+
+/**
+ * 成交对账接口
+ * 请求处理线程完成数据读取与分区，响应体以CSV流的形式输出对账结果；参数校验失败时返回400和JSON格式的错误消息。
+ * 临时分区文件在异步请求结束时删除，包括响应体未执行就超时或出错的情况
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/reconciliation")
+@RequiredArgsConstructor
+public class ReconciliationController {
+
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    private final ReconciliationService reconciliationService;
+
+    /**
+     * broker成交与内部簿记记录对账，请求体为内部记录CSV
+     */
+    @PostMapping("/internal")
+    public ResponseEntity<?> reconcileInternal(
+            @RequestParam String brokerId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "execID") String key,
+            @RequestParam(defaultValue = "0") double qtyTolerance,
+            @RequestParam(defaultValue = "0") double priceTolerance,
+            @RequestParam(defaultValue = "false") boolean includeMatched,
+            InputStream body,
+            HttpServletRequest request) throws IOException {
+
+        log.info("Reconciling broker {} against internal trades: from={}, to={}, key={}", brokerId, from, to, key);
+        if (from.isAfter(to)) {
+            return badRequest(invalidDateRange(from, to));
+        }
+        try {
+            ReconciliationRun run = reconciliationService.prepareInternal(brokerId, startOf(from), endOf(to), body,
+                    ReconciliationService.MatchKey.fromName(key), qtyTolerance, priceTolerance, includeMatched);
+            return report(brokerId + "-internal-" + from + "_" + to, run, request);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected reconciliation request for broker {}: {}", brokerId, e.getMessage());
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * 两个broker之间的成交对账
+     */
+    @PostMapping("/brokers")
+    public ResponseEntity<?> reconcileBrokers(
+            @RequestParam String brokerId,
+            @RequestParam String counterpartyBrokerId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "execID") String key,
+            @RequestParam(defaultValue = "0") double qtyTolerance,
+            @RequestParam(defaultValue = "0") double priceTolerance,
+            @RequestParam(defaultValue = "false") boolean includeMatched,
+            HttpServletRequest request) throws IOException {
+
+        log.info("Reconciling broker {} against broker {}: from={}, to={}, key={}",
+                brokerId, counterpartyBrokerId, from, to, key);
+        if (from.isAfter(to)) {
+            return badRequest(invalidDateRange(from, to));
+        }
+        try {
+            ReconciliationRun run = reconciliationService.prepareBrokers(brokerId, counterpartyBrokerId,
+                    startOf(from), endOf(to), ReconciliationService.MatchKey.fromName(key),
+                    qtyTolerance, priceTolerance, includeMatched);
+            return report(brokerId + "-" + counterpartyBrokerId + "-" + from + "_" + to, run, request);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected reconciliation request for brokers {} and {}: {}",
+                    brokerId, counterpartyBrokerId, e.getMessage());
+            return badRequest(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> report(String fileName, ReconciliationRun run,
+                                                         HttpServletRequest request) {
+        // 响应体在异步线程上执行并在结束后关闭运行；客户端断开或异步超时导致响应体未执行时，在异步请求结束时删除临时文件
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(
+                ReconciliationController.class.getName(), new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        run.close();
+                    }
+                });
+        return ResponseEntity.ok()
+                .contentType(TEXT_CSV)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "-reconciliation.csv\"")
+                .body(out -> {
+                    ReconciliationRun.Summary summary = reconciliationService.execute(run, out);
+                    log.info("Reconciliation {} completed: matched={}, breaks={}, unmatchedLeft={}, unmatchedRight={}, {} ms",
+                            fileName, summary.getMatched(), summary.getBreaks(), summary.getUnmatchedLeft(),
+                            summary.getUnmatchedRight(), summary.getElapsedMillis());
+                });
+    }
+
+    private static String invalidDateRange(LocalDate from, LocalDate to) {
+        return "Invalid date range: from " + from + " is after to " + to;
+    }
+
+    private static ResponseEntity<TradeQueryResponse> badRequest(String errorMessage) {
+        TradeQueryResponse response = TradeQueryResponse.builder()
+                .success(false)
+                .errorMessage(errorMessage)
+                .build();
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(response);
+    }
+
+    private static Instant startOf(LocalDate date) {
+        return date.atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+
+    private static Instant endOf(LocalDate date) {
+        return date.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+}
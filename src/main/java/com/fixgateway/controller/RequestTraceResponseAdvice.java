@@ -0,0 +1,43 @@
+package com.fixgateway.controller;
+
+import com.fixgateway.service.RequestTracer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * 在响应序列化前记录追踪阶段；请求带有X-Debug-Trace头时，在响应头X-Trace-Breakdown中返回各阶段耗时
+ */
+@ControllerAdvice
+@RequiredArgsConstructor
+public class RequestTraceResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    public static final String DEBUG_TRACE_HEADER = "X-Debug-Trace";
+    public static final String TRACE_BREAKDOWN_HEADER = "X-Trace-Breakdown";
+
+    private final RequestTracer requestTracer;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        requestTracer.mark(RequestTracer.Stage.SERIALIZE_STARTED);
+        if (request.getHeaders().containsKey(DEBUG_TRACE_HEADER)) {
+            String breakdown = requestTracer.currentBreakdown();
+            if (breakdown != null) {
+                response.getHeaders().add(TRACE_BREAKDOWN_HEADER, breakdown);
+            }
+        }
+        return body;
+    }
+}
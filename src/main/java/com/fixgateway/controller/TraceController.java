@@ -0,0 +1,26 @@
+package com.fixgateway.controller;
+
+import com.fixgateway.service.RequestTracer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/traces")
+@RequiredArgsConstructor
+public class TraceController {
+
+    private final RequestTracer requestTracer;
+
+    /**
+     * 最近超过慢请求阈值的请求及其各阶段耗时，最新的在前
+     */
+    @GetMapping("/slow")
+    public List<Map<String, Object>> getSlowTraces() {
+        return requestTracer.getSlowTraces();
+    }
+}
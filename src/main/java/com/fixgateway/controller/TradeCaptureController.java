@@ -2,20 +2,34 @@ package com.fixgateway.controller;
 
 import com.fixgateway.dto.TradeCaptureRequest;
 import com.fixgateway.dto.TradeCaptureResponse;
+import com.fixgateway.dto.TradeQueryResponse;
+import com.fixgateway.exception.AdmissionRejectedException;
+import com.fixgateway.exception.TradeRequestRejectedException;
 import com.fixgateway.service.FixMessageService;
+import com.fixgateway.service.RequestLane;
+import com.fixgateway.service.RequestTracer;
+import com.fixgateway.service.TradeExportService;
+import com.fixgateway.service.TradeLogReplayService;
+import com.fixgateway.service.TradeQueryEngine;
 import com.fixgateway.util.FixMessageConverter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import quickfix.FieldNotFound;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import quickfix.fix44.TradeCaptureReport;
 
-import java.util.HashMap;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -26,15 +40,26 @@ import java.util.concurrent.TimeoutException;
 public class TradeCaptureController {
 
     private final FixMessageService fixMessageService;
+    private final TradeQueryEngine tradeQueryEngine;
+    private final TradeExportService tradeExportService;
+    private final TradeLogReplayService tradeLogReplayService;
+    private final RequestTracer requestTracer;
     private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    private static final int MAX_QUERY_LIMIT = 1000;
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+    private static final String REQUEST_LANE_HEADER = "X-Request-Lane";
+    private static final MediaType ARROW_STREAM = MediaType.parseMediaType("application/vnd.apache.arrow.stream");
 
     @PostMapping("/report")
     public ResponseEntity<TradeCaptureResponse> requestTradeCaptureReport(
-            @RequestBody TradeCaptureRequest request) {
+            @RequestBody TradeCaptureRequest request,
+            @RequestHeader(value = REQUEST_LANE_HEADER, required = false) String callerLane) {
         
+        requestTracer.mark(RequestTracer.Stage.DESERIALIZED);
         try {
-            log.info("Received TradeCaptureReport request: brokerId={}, tradeReportID={}, tradeRequestType={}", 
-                    request.getBrokerId(), request.getTradeReportID(), request.getTradeRequestType());
+            RequestLane lane = RequestLane.resolve(request.getLane(), callerLane, RequestLane.INTERACTIVE);
+            log.info("Received TradeCaptureReport request: brokerId={}, tradeReportID={}, tradeRequestType={}, lane={}", 
+                    request.getBrokerId(), request.getTradeReportID(), request.getTradeRequestType(), lane);
             
             // 发送FIX请求
             CompletableFuture<TradeCaptureReport> future;
@@ -43,22 +68,37 @@ public class TradeCaptureController {
                 future = fixMessageService.requestTradeCaptureReport(
                     request.getBrokerId(), 
                     request.getTradeReportID(), 
-                    request.getTradeRequestType()
+                    request.getTradeRequestType(),
+                    lane
                 );
             } else {
                 // 使用向后兼容的方法（默认使用第一个broker）
                 future = fixMessageService.requestTradeCaptureReport(
                     request.getTradeReportID(), 
-                    request.getTradeRequestType()
+                    request.getTradeRequestType(),
+                    lane
                 );
             }
             
             // 等待响应（带超时）
             TradeCaptureReport report = future.get(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            requestTracer.mark(RequestTracer.Stage.RESPONSE_DISPATCHED);
+            
+            // broker确认没有匹配的成交
+            if (report == null) {
+                log.info("No trades matched: tradeReportID={}", request.getTradeReportID());
+                TradeCaptureResponse response = TradeCaptureResponse.builder()
+                        .success(true)
+                        .totalNumTrades(0)
+                        .trades(List.of())
+                        .build();
+                return ResponseEntity.ok(response);
+            }
             
             // 转换响应
-            TradeCaptureResponse response = convertToResponse(report);
+            TradeCaptureResponse response = FixMessageConverter.toTradeCaptureResponse(report);
             response.setSuccess(true);
+            requestTracer.mark(RequestTracer.Stage.RESPONSE_CONVERTED);
             
             log.info("TradeCaptureReport received successfully: tradeRequestID={}", 
                     response.getTradeRequestID());
@@ -73,6 +113,12 @@ public class TradeCaptureController {
                     .build();
             return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(response);
             
+        } catch (ExecutionException e) {
+            return failureResponse(e.getCause());
+            
+        } catch (IllegalArgumentException e) {
+            return failureResponse(e);
+            
         } catch (Exception e) {
             log.error("Error processing TradeCaptureReport request", e);
             TradeCaptureResponse response = TradeCaptureResponse.builder()
@@ -83,44 +129,201 @@ public class TradeCaptureController {
         }
     }
 
-    private TradeCaptureResponse convertToResponse(TradeCaptureReport report) throws FieldNotFound {
-        Map<String, Object> reportMap = FixMessageConverter.convertTradeCaptureReportToMap(report);
-        
-        TradeCaptureResponse.TradeCaptureResponseBuilder builder = TradeCaptureResponse.builder();
-        
-        if (reportMap.containsKey("tradeRequestID")) {
-            builder.tradeRequestID((String) reportMap.get("tradeRequestID"));
+    /**
+     * 向broker查询时间范围内的全部成交，按TransactTime拆分为多个时间窗口并发请求，结果按TransactTime升序返回
+     * 时间参数为ISO-8601格式（如2024-01-02T00:00:00Z），from包含，to不包含
+     * 子请求按批量类别发送，占用broker的批量并发名额
+     */
+    @GetMapping("/range")
+    public ResponseEntity<TradeCaptureResponse> requestTradesInRange(
+            @RequestParam String brokerId,
+            @RequestParam Instant from,
+            @RequestParam Instant to,
+            @RequestParam(defaultValue = "4") int windows) {
+        try {
+            log.info("Received trade range request: brokerId={}, from={}, to={}, windows={}", brokerId, from, to, windows);
+            List<TradeCaptureReport> reports = fixMessageService.requestTradesByTimeWindows(brokerId, from, to, windows)
+                    .get(FixMessageService.WINDOW_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            
+            List<Map<String, Object>> trades = new java.util.ArrayList<>(reports.size());
+            for (TradeCaptureReport report : reports) {
+                trades.add(FixMessageConverter.toTradeInfo(FixMessageConverter.convertTradeCaptureReportToMap(report)));
+            }
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(true)
+                    .totalNumTrades(trades.size())
+                    .trades(trades)
+                    .build();
+            return ResponseEntity.ok(response);
+            
+        } catch (TimeoutException e) {
+            return failureResponse(e);
+        } catch (ExecutionException e) {
+            return failureResponse(e.getCause());
+        } catch (Exception e) {
+            log.error("Error processing trade range request", e);
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(false)
+                    .errorMessage("Error: " + e.getMessage())
+                    .build();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
-        
-        if (reportMap.containsKey("tradeReportID")) {
-            builder.tradeReportID((String) reportMap.get("tradeReportID"));
+    }
+
+    /**
+     * 查询网关本地已收到的成交，不经过broker
+     * 时间参数为ISO-8601格式（如2024-01-02T09:30:00Z），from包含，to不包含
+     */
+    @GetMapping("/trades")
+    public ResponseEntity<TradeQueryResponse> queryTrades(
+            @RequestParam(required = false) String brokerId,
+            @RequestParam(required = false) String symbol,
+            @RequestParam(required = false) String side,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "100") int limit) {
+
+        if (offset < 0 || limit <= 0 || limit > MAX_QUERY_LIMIT || (side != null && side.length() != 1)) {
+            TradeQueryResponse response = TradeQueryResponse.builder()
+                    .success(false)
+                    .errorMessage("Invalid query: offset must be >= 0, limit must be in [1, " + MAX_QUERY_LIMIT
+                            + "], side must be a single FIX Side value")
+                    .build();
+            return ResponseEntity.badRequest().body(response);
         }
-        
-        if (reportMap.containsKey("totalNumTrades")) {
-            builder.totalNumTrades((Integer) reportMap.get("totalNumTrades"));
+
+        TradeQueryEngine.QueryResult result = tradeQueryEngine.query(
+                brokerId, symbol, side != null ? side.charAt(0) : null, from, to, offset, limit);
+
+        TradeQueryResponse response = TradeQueryResponse.builder()
+                .success(true)
+                .total(result.getTotal())
+                .offset(offset)
+                .limit(limit)
+                .trades(result.getTrades())
+                .build();
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 流式导出某个broker在日期范围内的成交（按TransactTime的UTC日期，from与to均包含）
+     * 以固定大小的批次分块传输，format支持csv与arrow（Arrow IPC流格式）
+     */
+    @GetMapping("/export")
+    public ResponseEntity<?> exportTrades(
+            @RequestParam String brokerId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "csv") String format) {
+
+        Instant fromTime = from.atStartOfDay().toInstant(ZoneOffset.UTC);
+        Instant toTime = to.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        String fileName = brokerId + "-trades-" + from + "_" + to;
+        log.info("Exporting trades: brokerId={}, from={}, to={}, format={}", brokerId, from, to, format);
+
+        if (from.isAfter(to)) {
+            return exportBadRequest("Invalid date range: from " + from + " is after to " + to);
         }
-        
-        if (reportMap.containsKey("fixFields")) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> fixFields = (Map<String, String>) reportMap.get("fixFields");
-            builder.fixFields(fixFields);
+        if ("csv".equalsIgnoreCase(format)) {
+            StreamingResponseBody body = out -> tradeExportService.exportCsv(brokerId, fromTime, toTime, out);
+            return ResponseEntity.ok()
+                    .contentType(TEXT_CSV)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + ".csv\"")
+                    .body(body);
         }
-        
-        // 将单个交易信息添加到trades列表
-        List<Map<String, Object>> trades = new java.util.ArrayList<>();
-        Map<String, Object> tradeInfo = new HashMap<>();
-        reportMap.forEach((key, value) -> {
-            if (!key.equals("fixFields") && !key.equals("tradeRequestID") 
-                    && !key.equals("tradeReportID") && !key.equals("totalNumTrades")) {
-                tradeInfo.put(key, value);
-            }
-        });
-        if (!tradeInfo.isEmpty()) {
-            trades.add(tradeInfo);
+        if ("arrow".equalsIgnoreCase(format)) {
+            StreamingResponseBody body = out -> tradeExportService.exportArrow(brokerId, fromTime, toTime, out);
+            return ResponseEntity.ok()
+                    .contentType(ARROW_STREAM)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + ".arrows\"")
+                    .body(body);
+        }
+        return exportBadRequest("Invalid format: " + format + ", supported formats are csv and arrow");
+    }
+
+    private static ResponseEntity<TradeQueryResponse> exportBadRequest(String errorMessage) {
+        TradeQueryResponse response = TradeQueryResponse.builder()
+                .success(false)
+                .errorMessage(errorMessage)
+                .build();
+        // 客户端可能只接受text/csv，错误响应显式指定JSON，避免内容协商失败
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(response);
+    }
+
+    /**
+     * 从broker session的QuickFIX/J消息日志重建本地成交历史
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<TradeQueryResponse> replayMessageLog(@RequestParam String brokerId) {
+        try {
+            log.info("Replaying message log for broker: {}", brokerId);
+            int loaded = tradeLogReplayService.replay(brokerId);
+            TradeQueryResponse response = TradeQueryResponse.builder()
+                    .success(true)
+                    .total(loaded)
+                    .build();
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            TradeQueryResponse response = TradeQueryResponse.builder()
+                    .success(false)
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            log.error("Error replaying message log for broker: {}", brokerId, e);
+            TradeQueryResponse response = TradeQueryResponse.builder()
+                    .success(false)
+                    .errorMessage("Error replaying message log: " + e.getMessage())
+                    .build();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
-        builder.trades(trades);
-        
-        return builder.build();
     }
-}
 
+    /**
+     * 将FIX请求失败的原因转换为对应的HTTP状态
+     */
+    private ResponseEntity<TradeCaptureResponse> failureResponse(Throwable cause) {
+        if (cause instanceof AdmissionRejectedException) {
+            // 超过broker并发限制，立即拒绝，提示客户端稍后重试
+            AdmissionRejectedException rejected = (AdmissionRejectedException) cause;
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(false)
+                    .errorMessage(rejected.getMessage())
+                    .build();
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.getRetryAfterSeconds()))
+                    .body(response);
+        }
+        if (cause instanceof TradeRequestRejectedException) {
+            TradeRequestRejectedException rejected = (TradeRequestRejectedException) cause;
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(false)
+                    .tradeRequestID(rejected.getTradeRequestID())
+                    .errorMessage(rejected.getMessage())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(response);
+        }
+        if (cause instanceof IllegalArgumentException) {
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(false)
+                    .errorMessage(cause.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (cause instanceof TimeoutException) {
+            log.error("Timeout waiting for TradeCaptureReport response", cause);
+            TradeCaptureResponse response = TradeCaptureResponse.builder()
+                    .success(false)
+                    .errorMessage("Timeout waiting for FIX response")
+                    .build();
+            return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(response);
+        }
+        log.error("Error processing TradeCaptureReport request", cause);
+        TradeCaptureResponse response = TradeCaptureResponse.builder()
+                .success(false)
+                .errorMessage("Error: " + cause.getMessage())
+                .build();
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+    }
+}
@@ -18,5 +18,10 @@ public class TradeCaptureRequest {
      * 交易请求类型（可选，默认为ALL_TRADES）
      */
     private String tradeRequestType;
+    
+    /**
+     * 请求类别（可选，INTERACTIVE或BULK），优先于X-Request-Lane请求头，默认为INTERACTIVE
+     */
+    private String lane;
 }
 
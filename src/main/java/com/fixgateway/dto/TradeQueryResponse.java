@@ -0,0 +1,45 @@
+package com.fixgateway.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TradeQueryResponse {
+    /**
+     * 是否成功
+     */
+    private boolean success;
+
+    /**
+     * 错误消息（如果失败）
+     */
+    private String errorMessage;
+
+    /**
+     * 满足条件的成交总数
+     */
+    private Integer total;
+
+    /**
+     * 分页起始位置
+     */
+    private Integer offset;
+
+    /**
+     * 分页大小
+     */
+    private Integer limit;
+
+    /**
+     * 当前页的成交列表
+     */
+    private List<Map<String, Object>> trades;
+}
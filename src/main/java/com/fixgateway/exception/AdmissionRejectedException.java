@@ -0,0 +1,20 @@
+package com.fixgateway.exception;
+
+/**
+ * broker当前并发已达自适应限制，请求被拒绝
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String brokerId, long retryAfterSeconds) {
+        super("Too many in-flight requests for broker: " + brokerId);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,20 @@
+package com.fixgateway.exception;
+
+/**
+ * broker拒绝了TradeCaptureReportRequest（TradeCaptureReportRequestAck、BusinessMessageReject或会话层Reject）
+ */
+public class TradeRequestRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tradeRequestID;
+
+    public TradeRequestRejectedException(String tradeRequestID, String reason) {
+        super("Trade request " + tradeRequestID + " rejected by broker: " + reason);
+        this.tradeRequestID = tradeRequestID;
+    }
+
+    public String getTradeRequestID() {
+        return tradeRequestID;
+    }
+}
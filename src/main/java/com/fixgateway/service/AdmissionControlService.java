@@ -0,0 +1,118 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.exception.AdmissionRejectedException;
+import com.fixgateway.util.AdaptiveConcurrencyLimit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实时请求准入控制
+ * 每个broker按请求类别各维护一个由FIX往返时间驱动的自适应并发限制，超过限制的请求立即拒绝而不是排队等待；
+ * 批量请求使用独立且较小的名额，不会占满交互式请求的名额
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdmissionControlService {
+
+    private static final Permit UNLIMITED = new Permit(null, 0);
+
+    private final BrokerConfig brokerConfig;
+
+    /**
+     * 每个请求类别下各broker的并发限制，key为brokerId
+     */
+    private final Map<RequestLane, Map<String, AdaptiveConcurrencyLimit>> limits = newLaneLimits();
+
+    /**
+     * 为发往broker的交互式请求申请并发名额
+     * @see #acquire(String, RequestLane)
+     */
+    public Permit acquire(String brokerId) {
+        return acquire(brokerId, RequestLane.INTERACTIVE);
+    }
+
+    /**
+     * 为发往broker的请求申请所属类别的并发名额
+     * @param brokerId broker标识
+     * @param lane 请求类别
+     * @return 请求完成后必须通过Permit报告结果以释放名额
+     * @throws AdmissionRejectedException 当前并发已达限制
+     */
+    public Permit acquire(String brokerId, RequestLane lane) {
+        BrokerConfig.AdmissionConfig config = brokerConfig.getAdmission();
+        if (!config.isEnabled()) {
+            return UNLIMITED;
+        }
+        AdaptiveConcurrencyLimit limit = limits.get(lane).computeIfAbsent(brokerId, id -> newLimit(lane, config));
+        if (!limit.tryAcquire()) {
+            long retryAfterSeconds = Math.max(1, (long) Math.ceil(limit.getEstimatedRttNanos() / 1_000_000_000.0));
+            log.warn("Rejecting {} request for broker {}: {} in flight, limit {}",
+                    lane, brokerId, limit.getInFlight(), limit.getLimit());
+            throw new AdmissionRejectedException(brokerId, retryAfterSeconds);
+        }
+        return new Permit(limit, System.nanoTime());
+    }
+
+    private static Map<RequestLane, Map<String, AdaptiveConcurrencyLimit>> newLaneLimits() {
+        Map<RequestLane, Map<String, AdaptiveConcurrencyLimit>> laneLimits = new EnumMap<>(RequestLane.class);
+        for (RequestLane lane : RequestLane.values()) {
+            laneLimits.put(lane, new ConcurrentHashMap<>());
+        }
+        return laneLimits;
+    }
+
+    private AdaptiveConcurrencyLimit newLimit(RequestLane lane, BrokerConfig.AdmissionConfig config) {
+        if (lane == RequestLane.BULK) {
+            BrokerConfig.LaneConfig laneConfig = brokerConfig.getLanes();
+            return new AdaptiveConcurrencyLimit(laneConfig.getBulkInitialLimit(), 1, laneConfig.getBulkMaxLimit());
+        }
+        return new AdaptiveConcurrencyLimit(config.getInitialLimit(), config.getMinLimit(), config.getMaxLimit());
+    }
+
+    /**
+     * 已获准的请求名额
+     */
+    public static class Permit {
+        private final AdaptiveConcurrencyLimit limit;
+        private final long startNanos;
+
+        private Permit(AdaptiveConcurrencyLimit limit, long startNanos) {
+            this.limit = limit;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * 收到broker响应
+         */
+        public void onSuccess() {
+            if (limit != null) {
+                limit.onSuccess(System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * 等待broker响应超时
+         */
+        public void onDropped() {
+            if (limit != null) {
+                limit.onDropped();
+            }
+        }
+
+        /**
+         * 请求因与broker负载无关的原因失败（如发送失败）
+         */
+        public void onIgnored() {
+            if (limit != null) {
+                limit.onIgnored();
+            }
+        }
+    }
+}
@@ -1,20 +1,58 @@
 package com.fixgateway.service;
 
+import com.fixgateway.exception.TradeRequestRejectedException;
+import com.fixgateway.util.FixMessageConverter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import quickfix.*;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.TradeRequestResult;
+import quickfix.field.TradeRequestStatus;
+import quickfix.fix44.BusinessMessageReject;
+import quickfix.fix44.Reject;
 import quickfix.fix44.TradeCaptureReport;
+import quickfix.fix44.TradeCaptureReportRequest;
+import quickfix.fix44.TradeCaptureReportRequestAck;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class FixApplication implements Application {
 
+    private final InboundMessageBus inboundMessageBus;
+    private final RequestTracer requestTracer;
+    private final TradeReportDeduplicator tradeReportDeduplicator;
+
     private final Map<String, CompletableFuture<TradeCaptureReport>> pendingRequests = new ConcurrentHashMap<>();
 
+    /**
+     * 等待多条报告的请求（如按时间窗口拆分的子请求），key为TradeRequestID
+     */
+    private final Map<String, ReportBatch> pendingBatches = new ConcurrentHashMap<>();
+
+    /**
+     * 待处理请求发出时的SessionID与MsgSeqNum到TradeRequestID的映射，
+     * 用于按RefSeqNum关联会话层Reject和未携带BusinessRejectRefID的BusinessMessageReject
+     */
+    private final Map<String, String> requestIdsBySeqNum = new ConcurrentHashMap<>();
+
+    /**
+     * TradeRequestID到发出时序列号键的反向映射，用于请求结束时清理
+     */
+    private final Map<String, String> seqNumsByRequestId = new ConcurrentHashMap<>();
+
+    /**
+     * SessionID到brokerId的映射，由FixSessionConfig在启动initiator时注册
+     */
+    private final Map<SessionID, String> sessionBrokerIds = new ConcurrentHashMap<>();
+
     @Override
     public void onCreate(SessionID sessionId) {
         log.info("Session created: {}", sessionId);
@@ -38,38 +76,220 @@ public class FixApplication implements Application {
     @Override
     public void fromAdmin(Message message, SessionID sessionId) throws FieldNotFound, IncorrectDataFormat, IncorrectTagValue, RejectLogon {
         log.debug("Received admin message: {}", message);
+
+        if (message instanceof Reject) {
+            handleReject((Reject) message, sessionId);
+        }
     }
 
     @Override
     public void toApp(Message message, SessionID sessionId) throws DoNotSend {
         log.debug("Sending app message: {}", message);
+
+        // 序列号在toApp之前已写入消息头，记录下来以便按RefSeqNum关联拒绝消息
+        if (message instanceof TradeCaptureReportRequest) {
+            try {
+                String tradeRequestID = ((TradeCaptureReportRequest) message).getTradeRequestID().getValue();
+                if (isPending(tradeRequestID)) {
+                    String seqNumKey = seqNumKey(sessionId, message.getHeader().getInt(MsgSeqNum.FIELD));
+                    requestIdsBySeqNum.put(seqNumKey, tradeRequestID);
+                    seqNumsByRequestId.put(tradeRequestID, seqNumKey);
+                }
+            } catch (FieldNotFound e) {
+                log.debug("Unable to record MsgSeqNum for outbound TradeCaptureReportRequest", e);
+            }
+        }
     }
 
     @Override
     public void fromApp(Message message, SessionID sessionId) throws FieldNotFound, IncorrectDataFormat, IncorrectTagValue, UnsupportedMessageType {
-        log.info("Received app message: {}", message);
+        log.debug("Received app message: {}", message);
+        
+        String brokerId = sessionBrokerIds.get(sessionId);
+        // 重连、重发时重放的报告在关联请求和分发之前丢弃
+        if (message instanceof TradeCaptureReport && tradeReportDeduplicator.isDuplicate(
+                brokerId != null ? brokerId : sessionId.toString(), (TradeCaptureReport) message)) {
+            return;
+        }
         
         if (message instanceof TradeCaptureReport) {
             handleTradeCaptureReport((TradeCaptureReport) message);
+        } else if (message instanceof TradeCaptureReportRequestAck) {
+            handleTradeCaptureReportRequestAck((TradeCaptureReportRequestAck) message);
+        } else if (message instanceof BusinessMessageReject) {
+            handleBusinessMessageReject((BusinessMessageReject) message, sessionId);
         }
+        
+        // 发布给其他消费者（本地成交缓存、查询引擎等），在各自线程上异步处理
+        inboundMessageBus.publish(brokerId, sessionId, message);
     }
 
     private void handleTradeCaptureReport(TradeCaptureReport report) {
         try {
             String tradeRequestID = report.isSetTradeRequestID() ? report.getTradeRequestID().getValue() : null;
             
-            if (tradeRequestID != null && pendingRequests.containsKey(tradeRequestID)) {
-                CompletableFuture<TradeCaptureReport> future = pendingRequests.remove(tradeRequestID);
+            ReportBatch batch = tradeRequestID != null ? pendingBatches.get(tradeRequestID) : null;
+            if (batch != null) {
+                if (batch.add(report)) {
+                    completeBatch(tradeRequestID);
+                }
+                return;
+            }
+            
+            CompletableFuture<TradeCaptureReport> future = takeRequest(tradeRequestID, report);
+            if (future != null) {
                 future.complete(report);
                 log.info("TradeCaptureReport received for request ID: {}", tradeRequestID);
             } else {
-                log.warn("Received TradeCaptureReport with unknown or missing TradeRequestID");
+                // 预取快照等非实时请求的报告只由总线上的消费者处理
+                log.debug("Received TradeCaptureReport without a pending request, TradeRequestID: {}", tradeRequestID);
             }
         } catch (Exception e) {
             log.error("Error handling TradeCaptureReport", e);
         }
     }
 
+    /**
+     * 处理TradeCaptureReportRequestAck：请求被拒绝时立即失败；没有匹配成交时以null立即完成
+     * 已接受且有成交的确认不做处理，等待后续的TradeCaptureReport
+     */
+    private void handleTradeCaptureReportRequestAck(TradeCaptureReportRequestAck ack) {
+        try {
+            String tradeRequestID = ack.isSetTradeRequestID() ? ack.getTradeRequestID().getValue() : null;
+            if (tradeRequestID == null || !isPending(tradeRequestID)) {
+                log.debug("Received TradeCaptureReportRequestAck without a pending request, TradeRequestID: {}", tradeRequestID);
+                return;
+            }
+
+            int result = ack.isSetTradeRequestResult()
+                    ? ack.getTradeRequestResult().getValue() : TradeRequestResult.SUCCESSFUL;
+            int status = ack.isSetTradeRequestStatus()
+                    ? ack.getTradeRequestStatus().getValue() : TradeRequestStatus.ACCEPTED;
+            String text = ack.isSetText() ? ack.getText().getValue() : null;
+
+            if (status == TradeRequestStatus.REJECTED || result != TradeRequestResult.SUCCESSFUL) {
+                rejectRequest(tradeRequestID, ack, "TradeRequestResult=" + result + (text != null ? ", " + text : ""));
+                return;
+            }
+
+            ReportBatch batch = pendingBatches.get(tradeRequestID);
+            if (batch != null) {
+                // 多报告请求在报告数到齐时结束，确认未给出报告数时以COMPLETED为准
+                boolean done = ack.isSetTotNumTradeReports()
+                        ? batch.expect(ack.getTotNumTradeReports().getValue())
+                        : status == TradeRequestStatus.COMPLETED;
+                if (done) {
+                    completeBatch(tradeRequestID);
+                }
+                return;
+            }
+
+            // 请求仍在等待说明尚未收到任何报告，报告数为0（或已完成且未给出报告数）即表示没有匹配的成交
+            if (FixMessageConverter.isNoTradesAck(ack)) {
+                CompletableFuture<TradeCaptureReport> future = takeRequest(tradeRequestID, ack);
+                if (future != null) {
+                    log.info("No trades matched for request ID: {}", tradeRequestID);
+                    future.complete(null);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error handling TradeCaptureReportRequestAck", e);
+        }
+    }
+
+    /**
+     * 处理BusinessMessageReject，优先按BusinessRejectRefID关联，其次按RefSeqNum关联
+     */
+    private void handleBusinessMessageReject(BusinessMessageReject reject, SessionID sessionId) {
+        try {
+            String tradeRequestID = reject.isSetBusinessRejectRefID() ? reject.getBusinessRejectRefID().getValue() : null;
+            if ((tradeRequestID == null || !isPending(tradeRequestID)) && reject.isSetRefSeqNum()) {
+                tradeRequestID = requestIdsBySeqNum.get(seqNumKey(sessionId, reject.getRefSeqNum().getValue()));
+            }
+            String reason = "BusinessRejectReason=" + (reject.isSetBusinessRejectReason() ? reject.getBusinessRejectReason().getValue() : "")
+                    + (reject.isSetText() ? ", " + reject.getText().getValue() : "");
+            rejectRequest(tradeRequestID, reject, reason);
+        } catch (Exception e) {
+            log.error("Error handling BusinessMessageReject", e);
+        }
+    }
+
+    /**
+     * 处理会话层Reject，按RefSeqNum关联
+     */
+    private void handleReject(Reject reject, SessionID sessionId) {
+        try {
+            if (!reject.isSetRefSeqNum()) {
+                return;
+            }
+            String tradeRequestID = requestIdsBySeqNum.get(seqNumKey(sessionId, reject.getRefSeqNum().getValue()));
+            String reason = "SessionRejectReason=" + (reject.isSetSessionRejectReason() ? reject.getSessionRejectReason().getValue() : "")
+                    + (reject.isSetText() ? ", " + reject.getText().getValue() : "");
+            rejectRequest(tradeRequestID, reject, reason);
+        } catch (Exception e) {
+            log.error("Error handling Reject", e);
+        }
+    }
+
+    private void rejectRequest(String tradeRequestID, Message reject, String reason) {
+        CompletableFuture<?> future = tradeRequestID != null ? takeRequest(tradeRequestID, reject) : null;
+        if (future == null && tradeRequestID != null) {
+            ReportBatch batch = pendingBatches.remove(tradeRequestID);
+            if (batch != null) {
+                removeSeqNum(tradeRequestID);
+                future = batch.future;
+            }
+        }
+        if (future == null) {
+            log.debug("Received reject without a pending request: {}", reason);
+            return;
+        }
+        log.warn("TradeCaptureReportRequest {} rejected: {}", tradeRequestID, reason);
+        future.completeExceptionally(new TradeRequestRejectedException(tradeRequestID, reason));
+    }
+
+    private void completeBatch(String tradeRequestID) {
+        ReportBatch batch = pendingBatches.remove(tradeRequestID);
+        if (batch != null) {
+            removeSeqNum(tradeRequestID);
+            List<TradeCaptureReport> reports = batch.reports();
+            log.info("{} TradeCaptureReport(s) received for request ID: {}", reports.size(), tradeRequestID);
+            batch.future.complete(reports);
+        }
+    }
+
+    private boolean isPending(String tradeRequestID) {
+        return pendingRequests.containsKey(tradeRequestID) || pendingBatches.containsKey(tradeRequestID);
+    }
+
+    /**
+     * 取出并移除待处理请求及其序列号映射
+     * @param response 关联到请求的入站消息，用于记录追踪
+     * @return 待处理请求的future，若不存在（已完成或已超时）则返回null
+     */
+    private CompletableFuture<TradeCaptureReport> takeRequest(String tradeRequestID, Message response) {
+        if (tradeRequestID == null) {
+            return null;
+        }
+        CompletableFuture<TradeCaptureReport> future = pendingRequests.remove(tradeRequestID);
+        if (future != null) {
+            requestTracer.markResponseReceived(tradeRequestID, response);
+            removeSeqNum(tradeRequestID);
+        }
+        return future;
+    }
+
+    private void removeSeqNum(String tradeRequestID) {
+        String seqNumKey = seqNumsByRequestId.remove(tradeRequestID);
+        if (seqNumKey != null) {
+            requestIdsBySeqNum.remove(seqNumKey);
+        }
+    }
+
+    private static String seqNumKey(SessionID sessionId, int msgSeqNum) {
+        return sessionId + ":" + msgSeqNum;
+    }
+
     public CompletableFuture<TradeCaptureReport> registerRequest(String tradeRequestID) {
         CompletableFuture<TradeCaptureReport> future = new CompletableFuture<>();
         pendingRequests.put(tradeRequestID, future);
@@ -78,6 +298,67 @@ public class FixApplication implements Application {
 
     public void removeRequest(String tradeRequestID) {
         pendingRequests.remove(tradeRequestID);
+        pendingBatches.remove(tradeRequestID);
+        removeSeqNum(tradeRequestID);
     }
-}
 
+    /**
+     * 注册等待多条报告的请求，在收到LastRptRequested、报告数达到TotNumTradeReports或确认完成时结束
+     * @return 按到达顺序排列的全部报告，没有匹配的成交时为空列表
+     */
+    public CompletableFuture<List<TradeCaptureReport>> registerBatchRequest(String tradeRequestID) {
+        ReportBatch batch = new ReportBatch();
+        pendingBatches.put(tradeRequestID, batch);
+        return batch.future;
+    }
+
+    /**
+     * 注册SessionID对应的brokerId
+     */
+    public void registerSession(SessionID sessionId, String brokerId) {
+        sessionBrokerIds.put(sessionId, brokerId);
+    }
+
+    /**
+     * 根据SessionID获取对应的brokerId
+     */
+    public String getBrokerId(SessionID sessionId) {
+        return sessionBrokerIds.get(sessionId);
+    }
+
+    /**
+     * 多报告请求已收到的报告
+     */
+    private static class ReportBatch {
+        private final CompletableFuture<List<TradeCaptureReport>> future = new CompletableFuture<>();
+        private final List<TradeCaptureReport> reports = new ArrayList<>();
+        private int expected = -1;
+
+        /**
+         * @return 是否已收到全部报告
+         */
+        private synchronized boolean add(TradeCaptureReport report) throws FieldNotFound {
+            reports.add(report);
+            if (report.isSetLastRptRequested() && report.getLastRptRequested().getValue()) {
+                return true;
+            }
+            if (report.isSetTotNumTradeReports()) {
+                expected = report.getTotNumTradeReports().getValue();
+            }
+            return expected >= 0 && reports.size() >= expected;
+        }
+
+        /**
+         * 记录确认消息中的报告总数
+         * @return 是否已收到全部报告
+         */
+        private synchronized boolean expect(int totNumTradeReports) {
+            expected = totNumTradeReports;
+            return reports.size() >= expected;
+        }
+
+        private synchronized List<TradeCaptureReport> reports() {
+            return new ArrayList<>(reports);
+        }
+    }
+}
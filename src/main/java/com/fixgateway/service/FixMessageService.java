@@ -1,5 +1,8 @@
 package com.fixgateway.service;
 
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.exception.AdmissionRejectedException;
+import com.fixgateway.util.TradeRequestIdGenerator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -8,7 +11,14 @@ import quickfix.fix44.TradeCaptureReport;
 import quickfix.fix44.TradeCaptureReportRequest;
 import quickfix.field.*;
 
-import java.util.UUID;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -20,16 +30,55 @@ public class FixMessageService {
 
     private final FixApplication fixApplication;
     private final com.fixgateway.config.FixSessionConfig fixSessionConfig;
+    private final LocalTradeStore localTradeStore;
+    private final AdmissionControlService admissionControlService;
+    private final RequestTracer requestTracer;
+    private final OutboundSendScheduler outboundSendScheduler;
+
+    /**
+     * 等待broker响应的超时时间（秒），超时后移除待处理请求
+     */
+    public static final int REQUEST_TIMEOUT_SECONDS = 30;
+
+    /**
+     * 按时间窗口拆分的子请求等待全部报告的超时时间（秒）
+     */
+    public static final int WINDOW_REQUEST_TIMEOUT_SECONDS = 120;
+
+    /**
+     * 单次查询最多拆分的时间窗口数
+     */
+    public static final int MAX_TIME_WINDOWS = 32;
+
+    private final TradeRequestIdGenerator tradeRequestIdGenerator = new TradeRequestIdGenerator();
+
+    /**
+     * 每个线程复用的请求消息
+     * Session.sendToTarget在返回前已将消息编码为字符串并存储，之后不再持有消息对象，因此发送完成即可复用
+     */
+    private static final ThreadLocal<TradeCaptureReportRequest> REQUEST_MESSAGES =
+            ThreadLocal.withInitial(TradeCaptureReportRequest::new);
+
+    /**
+     * 根据brokerId发送交互式TradeCaptureReportRequest
+     * @see #requestTradeCaptureReport(String, String, String, RequestLane)
+     */
+    public CompletableFuture<TradeCaptureReport> requestTradeCaptureReport(
+            String brokerId, String tradeReportID, String tradeRequestType) {
+        return requestTradeCaptureReport(brokerId, tradeReportID, tradeRequestType, RequestLane.INTERACTIVE);
+    }
 
     /**
      * 根据brokerId发送TradeCaptureReportRequest
      * @param brokerId broker标识
      * @param tradeReportID 交易报告ID
      * @param tradeRequestType 交易请求类型
-     * @return CompletableFuture<TradeCaptureReport>
+     * @param lane 请求类别，决定占用的并发名额和发送队列
+     * @return CompletableFuture<TradeCaptureReport>，broker确认没有匹配的成交时以null完成，
+     *         请求被拒绝时以TradeRequestRejectedException失败
      */
     public CompletableFuture<TradeCaptureReport> requestTradeCaptureReport(
-            String brokerId, String tradeReportID, String tradeRequestType) {
+            String brokerId, String tradeReportID, String tradeRequestType, RequestLane lane) {
         try {
             SessionID sessionID = fixSessionConfig.getSessionId(brokerId);
             if (sessionID == null) {
@@ -39,30 +88,78 @@ public class FixMessageService {
                 return failed;
             }
 
+            // 本地数据足够新鲜时直接由本地应答
+            if (tradeReportID != null && !tradeReportID.isEmpty()) {
+                TradeCaptureReport cached = findLocalTrade(brokerId, tradeReportID);
+                if (cached != null) {
+                    log.info("Serving TradeCaptureReport {} for broker {} from local trade store", tradeReportID, brokerId);
+                    return CompletableFuture.completedFuture(cached);
+                }
+            }
+
             // 生成唯一的请求ID
-            String tradeRequestID = UUID.randomUUID().toString();
+            String tradeRequestID = tradeRequestIdGenerator.next();
+            int requestType = parseTradeRequestType(tradeRequestType);
             
-            // 创建TradeCaptureReportRequest消息
-            TradeCaptureReportRequest request = new TradeCaptureReportRequest();
-            request.set(new TradeRequestID(tradeRequestID));
-            request.set(new TradeRequestType(TradeRequestType.ALL_TRADES));
+            // 准入控制：超过broker在该类别下的自适应并发限制时立即拒绝
+            AdmissionControlService.Permit permit = admissionControlService.acquire(brokerId, lane);
             
-            if (tradeReportID != null && !tradeReportID.isEmpty()) {
-                request.set(new TradeReportID(tradeReportID));
+            // 注册响应等待，超时后移除待处理请求，并用结果更新并发限制
+            CompletableFuture<TradeCaptureReport> future;
+            try {
+                future = fixApplication.registerRequest(tradeRequestID);
+            } catch (RuntimeException e) {
+                permit.onIgnored();
+                throw e;
             }
+            future.orTimeout(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            future.whenComplete((report, error) -> {
+                if (error == null) {
+                    permit.onSuccess();
+                } else if (error instanceof TimeoutException) {
+                    fixApplication.removeRequest(tradeRequestID);
+                    permit.onDropped();
+                } else {
+                    permit.onIgnored();
+                }
+            });
             
-            // 注册响应等待
-            CompletableFuture<TradeCaptureReport> future = fixApplication.registerRequest(tradeRequestID);
-            
-            // 发送请求
-            Session.sendToTarget(request, sessionID);
-            log.info("Sent TradeCaptureReportRequest to broker {} with TradeRequestID: {}", brokerId, tradeRequestID);
+            // 发送请求（实时请求不会被限流拒绝，令牌不足时按类别排队）
+            requestTracer.bind(tradeRequestID, brokerId);
+            requestTracer.mark(RequestTracer.Stage.SEND_STARTED);
+            // 排队的请求在调度线程上发送，将追踪一并传递过去
+            submitOrFail(brokerId, lane, tradeRequestID, future, requestTracer.propagate(() -> {
+                requestTracer.mark(RequestTracer.Stage.SEND_DEQUEUED);
+                if (future.isDone()) {
+                    // 排队期间已超时
+                    return;
+                }
+                try {
+                    // 消息在实际发送的线程上填充，使用该线程复用的TradeCaptureReportRequest
+                    TradeCaptureReportRequest request = reusableRequest();
+                    request.setString(TradeRequestID.FIELD, tradeRequestID);
+                    request.setInt(TradeRequestType.FIELD, requestType);
+                    if (tradeReportID != null && !tradeReportID.isEmpty()) {
+                        request.setString(TradeReportID.FIELD, tradeReportID);
+                    }
+                    Session.sendToTarget(request, sessionID);
+                    requestTracer.mark(RequestTracer.Stage.SENT);
+                    log.info("Sent TradeCaptureReportRequest to broker {} with TradeRequestID: {}", brokerId, tradeRequestID);
+                } catch (SessionNotFound e) {
+                    log.error("Session not found for broker: {}", brokerId, e);
+                    fixApplication.removeRequest(tradeRequestID);
+                    future.completeExceptionally(new RuntimeException("FIX session not found for broker: " + brokerId, e));
+                } catch (Exception e) {
+                    log.error("Error sending TradeCaptureReportRequest to broker: {}", brokerId, e);
+                    fixApplication.removeRequest(tradeRequestID);
+                    future.completeExceptionally(e);
+                }
+            }));
             
             return future;
-        } catch (SessionNotFound e) {
-            log.error("Session not found for broker: {}", brokerId, e);
+        } catch (AdmissionRejectedException e) {
             CompletableFuture<TradeCaptureReport> failed = new CompletableFuture<>();
-            failed.completeExceptionally(new RuntimeException("FIX session not found for broker: " + brokerId, e));
+            failed.completeExceptionally(e);
             return failed;
         } catch (Exception e) {
             log.error("Error sending TradeCaptureReportRequest to broker: {}", brokerId, e);
@@ -73,13 +170,220 @@ public class FixMessageService {
     }
 
     /**
-     * 根据brokerId发送TradeCaptureReportRequest（使用默认请求类型）
+     * 将大时间范围的成交查询按TransactTime拆分为互不重叠的时间窗口，每个窗口发送一个TradeCaptureReportRequest，
+     * 各子请求并发执行，结果按TransactTime合并
+     * 子请求属于批量类别，实际窗口数受broker批量并发限制约束：每个窗口占用一个并发名额，名额不足时减少窗口数
      * @param brokerId broker标识
-     * @param tradeReportID 交易报告ID
-     * @return CompletableFuture<TradeCaptureReport>
+     * @param fromTime TransactTime下限，包含
+     * @param toTime TransactTime上限，不包含
+     * @param windows 期望的窗口数
+     * @return 按TransactTime升序排列的全部报告
      */
-    public CompletableFuture<TradeCaptureReport> requestTradeCaptureReport(String brokerId, String tradeReportID) {
-        return requestTradeCaptureReport(brokerId, tradeReportID, null);
+    public CompletableFuture<List<TradeCaptureReport>> requestTradesByTimeWindows(
+            String brokerId, Instant fromTime, Instant toTime, int windows) {
+        SessionID sessionID = fixSessionConfig.getSessionId(brokerId);
+        if (sessionID == null) {
+            log.error("Session not found for broker: {}", brokerId);
+            CompletableFuture<List<TradeCaptureReport>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("FIX session not found for broker: " + brokerId));
+            return failed;
+        }
+        long fromMillis = fromTime.toEpochMilli();
+        long toMillis = toTime.toEpochMilli();
+        if (toMillis <= fromMillis) {
+            CompletableFuture<List<TradeCaptureReport>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Invalid time range: " + fromTime + " - " + toTime));
+            return failed;
+        }
+        int desiredWindows = (int) Math.max(1, Math.min(Math.min(windows, MAX_TIME_WINDOWS), toMillis - fromMillis));
+
+        // 为每个窗口申请并发名额，名额不足时以已获得的名额数作为窗口数
+        List<AdmissionControlService.Permit> permits = new ArrayList<>(desiredWindows);
+        for (int i = 0; i < desiredWindows; i++) {
+            try {
+                permits.add(admissionControlService.acquire(brokerId, RequestLane.BULK));
+            } catch (AdmissionRejectedException e) {
+                if (permits.isEmpty()) {
+                    CompletableFuture<List<TradeCaptureReport>> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    return failed;
+                }
+                break;
+            }
+        }
+        int windowCount = permits.size();
+
+        List<CompletableFuture<List<TradeCaptureReport>>> windowFutures = new ArrayList<>(windowCount);
+        for (int i = 0; i < windowCount; i++) {
+            long windowStart = fromMillis + (toMillis - fromMillis) * i / windowCount;
+            long windowEnd = fromMillis + (toMillis - fromMillis) * (i + 1) / windowCount;
+            try {
+                windowFutures.add(requestTimeWindow(brokerId, sessionID, windowStart, windowEnd, permits.get(i)));
+            } catch (RuntimeException e) {
+                // 尚未使用的名额立即释放，已发出的窗口由各自的完成回调释放
+                for (int j = i + 1; j < windowCount; j++) {
+                    permits.get(j).onIgnored();
+                }
+                CompletableFuture<List<TradeCaptureReport>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        log.info("Split trade query for broker {} ({} - {}) into {} time window(s)", brokerId, fromTime, toTime, windowCount);
+
+        // 窗口互不重叠，各窗口内按TransactTime排序后按窗口顺序拼接即为整体有序
+        return CompletableFuture.allOf(windowFutures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<TradeCaptureReport> merged = new ArrayList<>();
+                    for (CompletableFuture<List<TradeCaptureReport>> windowFuture : windowFutures) {
+                        List<TradeCaptureReport> reports = windowFuture.join();
+                        reports.sort(Comparator.comparingLong(FixMessageService::transactTimeMillis));
+                        merged.addAll(reports);
+                    }
+                    return merged;
+                });
+    }
+
+    /**
+     * 发送一个时间窗口的子请求，窗口[windowStart, windowEnd)以TrdCapDtGrp中的两个TransactTime表示
+     */
+    private CompletableFuture<List<TradeCaptureReport>> requestTimeWindow(String brokerId, SessionID sessionID,
+            long windowStart, long windowEnd, AdmissionControlService.Permit permit) {
+        String tradeRequestID = tradeRequestIdGenerator.next();
+        CompletableFuture<List<TradeCaptureReport>> future;
+        try {
+            future = fixApplication.registerBatchRequest(tradeRequestID);
+        } catch (RuntimeException e) {
+            permit.onIgnored();
+            throw e;
+        }
+        future.orTimeout(WINDOW_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        future.whenComplete((reports, error) -> {
+            if (error instanceof TimeoutException) {
+                fixApplication.removeRequest(tradeRequestID);
+                permit.onDropped();
+            } else {
+                // 子请求耗时取决于报告数量而非broker负载，不计入往返时间
+                permit.onIgnored();
+            }
+        });
+
+        submitOrFail(brokerId, RequestLane.BULK, tradeRequestID, future, () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                TradeCaptureReportRequest request = reusableRequest();
+                request.setString(TradeRequestID.FIELD, tradeRequestID);
+                request.setInt(TradeRequestType.FIELD, TradeRequestType.ALL_TRADES);
+                request.setChar(SubscriptionRequestType.FIELD, SubscriptionRequestType.SNAPSHOT);
+
+                // FIX日期范围两端均包含，结束时间取下一个窗口起点的前一毫秒，避免边界上的成交重复返回
+                TradeCaptureReportRequest.NoDates start = new TradeCaptureReportRequest.NoDates();
+                start.set(new TransactTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(windowStart), ZoneOffset.UTC)));
+                request.addGroup(start);
+                TradeCaptureReportRequest.NoDates end = new TradeCaptureReportRequest.NoDates();
+                end.set(new TransactTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(windowEnd - 1), ZoneOffset.UTC)));
+                request.addGroup(end);
+
+                Session.sendToTarget(request, sessionID);
+                log.debug("Sent time window request to broker {} with TradeRequestID: {}", brokerId, tradeRequestID);
+            } catch (Exception e) {
+                log.error("Error sending time window request to broker: {}", brokerId, e);
+                fixApplication.removeRequest(tradeRequestID);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 提交发送，提交本身失败（如调度线程无法创建）时立即以该异常完成请求
+     * 本地失败不代表broker过载，由请求的完成回调按onIgnored释放并发名额，而不是等到超时按onDropped收缩限制
+     */
+    private void submitOrFail(String brokerId, RequestLane lane, String tradeRequestID,
+                              CompletableFuture<?> future, Runnable send) {
+        try {
+            outboundSendScheduler.submit(brokerId, lane, send);
+        } catch (RuntimeException e) {
+            log.error("Error submitting TradeCaptureReportRequest for broker: {}", brokerId, e);
+            fixApplication.removeRequest(tradeRequestID);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static long transactTimeMillis(TradeCaptureReport report) {
+        try {
+            return report.isSetTransactTime()
+                    ? report.getTransactTime().getValue().toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MAX_VALUE;
+        } catch (FieldNotFound e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 在限流额度内发送当日成交快照请求，结果经入站消息总线写入本地成交缓存
+     * @param brokerId broker标识
+     * @param tradeDate 交易日
+     * @return 快照请求的TradeRequestID，若限流额度不足则返回null
+     */
+    public String requestTradeSnapshot(String brokerId, LocalDate tradeDate) throws SessionNotFound {
+        SessionID sessionID = fixSessionConfig.getSessionId(brokerId);
+        if (sessionID == null) {
+            throw new SessionNotFound("FIX session not found for broker: " + brokerId);
+        }
+        if (!outboundSendScheduler.tryAcquireIdle(brokerId)) {
+            log.debug("Rate limit reached or requests queued for broker {}, skipping trade snapshot request", brokerId);
+            return null;
+        }
+
+        String tradeRequestID = tradeRequestIdGenerator.next();
+
+        TradeCaptureReportRequest request = reusableRequest();
+        request.setString(TradeRequestID.FIELD, tradeRequestID);
+        request.setInt(TradeRequestType.FIELD, TradeRequestType.ALL_TRADES);
+        request.setChar(SubscriptionRequestType.FIELD, SubscriptionRequestType.SNAPSHOT);
+
+        TradeCaptureReportRequest.NoDates dates = new TradeCaptureReportRequest.NoDates();
+        dates.set(new TradeDate(tradeDate.format(DateTimeFormatter.BASIC_ISO_DATE)));
+        request.addGroup(dates);
+
+        localTradeStore.beginRefresh(brokerId, tradeRequestID, tradeDate);
+        Session.sendToTarget(request, sessionID);
+        log.info("Sent trade snapshot request to broker {} for {} with TradeRequestID: {}", brokerId, tradeDate, tradeRequestID);
+        return tradeRequestID;
+    }
+
+    /**
+     * 取出本线程复用的请求消息并清空上一次请求留下的字段
+     */
+    private static TradeCaptureReportRequest reusableRequest() {
+        TradeCaptureReportRequest request = REQUEST_MESSAGES.get();
+        request.clear();
+        request.getHeader().setString(MsgType.FIELD, TradeCaptureReportRequest.MSGTYPE);
+        return request;
+    }
+
+    /**
+     * 解析交易请求类型，未指定时默认为ALL_TRADES
+     */
+    private static int parseTradeRequestType(String tradeRequestType) {
+        if (tradeRequestType == null || tradeRequestType.isEmpty()) {
+            return TradeRequestType.ALL_TRADES;
+        }
+        try {
+            return Integer.parseInt(tradeRequestType.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid tradeRequestType: " + tradeRequestType, e);
+        }
+    }
+
+    private TradeCaptureReport findLocalTrade(String brokerId, String tradeReportID) {
+        BrokerConfig.BrokerSessionConfig brokerSessionConfig = fixSessionConfig.getBrokerSessionConfig(brokerId);
+        if (brokerSessionConfig == null || !brokerSessionConfig.isPrefetchEnabled()) {
+            return null;
+        }
+        return localTradeStore.findFresh(brokerId, tradeReportID, brokerSessionConfig.getMaxStalenessSeconds() * 1000L);
     }
 
     /**
@@ -89,6 +393,14 @@ public class FixMessageService {
      * @return CompletableFuture<TradeCaptureReport>
      */
     public CompletableFuture<TradeCaptureReport> requestTradeCaptureReport(String tradeReportID, String tradeRequestType) {
+        return requestTradeCaptureReport(tradeReportID, tradeRequestType, RequestLane.INTERACTIVE);
+    }
+
+    /**
+     * 使用第一个可用的broker发送指定类别的TradeCaptureReportRequest（向后兼容）
+     */
+    public CompletableFuture<TradeCaptureReport> requestTradeCaptureReport(
+            String tradeReportID, String tradeRequestType, RequestLane lane) {
         List<String> brokerIds = fixSessionConfig.getBrokerIds();
         if (brokerIds == null || brokerIds.isEmpty()) {
             CompletableFuture<TradeCaptureReport> failed = new CompletableFuture<>();
@@ -98,7 +410,7 @@ public class FixMessageService {
         // 使用第一个broker
         String defaultBrokerId = brokerIds.get(0);
         log.info("Using default broker: {} for backward compatibility", defaultBrokerId);
-        return requestTradeCaptureReport(defaultBrokerId, tradeReportID, tradeRequestType);
+        return requestTradeCaptureReport(defaultBrokerId, tradeReportID, tradeRequestType, lane);
     }
 }
 
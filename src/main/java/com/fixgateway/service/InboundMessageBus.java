@@ -0,0 +1,257 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import quickfix.Message;
+import quickfix.SessionID;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 入站FIX消息环形缓冲区
+ * FixApplication.fromApp每条消息只发布一次，各消费者持有自己的序号，在独立线程上以游标为屏障按序消费，
+ * 消息对象在消费者之间共享而不复制。
+ * 发布从不等待消费者，慢消费者不会阻塞FIX会话线程：消费者落后超过一整圈时跳过被覆盖的消息，
+ * 并通过InboundMessageHandler.onMessagesSkipped通知其自行恢复（如重新拉取快照、从消息日志回放）。
+ * 空闲的消费者短暂自旋后挂起，由发布方唤醒；所有消费者都处理过的槽位会被清空，不再持有消息对象
+ */
+@Slf4j
+@Component
+public class InboundMessageBus {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final List<InboundMessageHandler> handlers;
+    private final List<Consumer> consumers = new ArrayList<>();
+
+    /**
+     * 消费者快照，供发布方唤醒挂起的消费者和消费者计算可清空的槽位
+     */
+    private volatile Consumer[] consumerArray = new Consumer[0];
+
+    /**
+     * 最后一条已发布消息的序号
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * 已清空的最大序号，在发布锁内写入
+     */
+    private volatile long clearedSequence = -1;
+
+    public InboundMessageBus(BrokerConfig brokerConfig, List<InboundMessageHandler> handlers) {
+        int bufferSize = brokerConfig.getEventBus().getBufferSize();
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("fix.event-bus.buffer-size must be a power of 2: " + bufferSize);
+        }
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = bufferSize - 1;
+        this.handlers = handlers;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (InboundMessageHandler handler : handlers) {
+            Consumer consumer = new Consumer(handler);
+            Thread thread = new Thread(consumer, "inbound-bus-" + handler.getHandlerName());
+            thread.setDaemon(true);
+            consumer.thread = thread;
+            consumers.add(consumer);
+        }
+        consumerArray = consumers.toArray(new Consumer[0]);
+        for (Consumer consumer : consumers) {
+            consumer.thread.start();
+        }
+        log.info("Inbound message bus started with {} slot(s) and {} consumer(s)", slots.length, consumers.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Consumer consumer : consumers) {
+            consumer.running = false;
+            LockSupport.unpark(consumer.thread);
+        }
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        consumers.clear();
+        consumerArray = new Consumer[0];
+    }
+
+    /**
+     * 发布一条入站消息
+     * 多个initiator线程可能同时发布，声明序号与写入槽位在同一把锁内完成，临界区只有几次字段写入；
+     * 写入后唤醒已挂起的消费者
+     */
+    public void publish(String brokerId, SessionID sessionId, Message message) {
+        synchronized (this) {
+            long sequence = cursor.get() + 1;
+            Slot slot = slots[(int) sequence & mask];
+            // 先把槽位标记为写入中，消费者读到的字段若与序号不一致会被识别为已覆盖
+            slot.sequence = -1;
+            VarHandle.storeStoreFence();
+            slot.brokerId = brokerId;
+            slot.sessionId = sessionId;
+            slot.message = message;
+            slot.sequence = sequence;
+            cursor.set(sequence);
+        }
+        for (Consumer consumer : consumerArray) {
+            if (consumer.parked) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+    }
+
+    /**
+     * @param defaultSequence 没有消费者时的返回值
+     */
+    private long minProcessed(long defaultSequence) {
+        long min = defaultSequence;
+        for (Consumer consumer : consumerArray) {
+            min = Math.min(min, consumer.processed);
+        }
+        return min;
+    }
+
+    /**
+     * 清空所有消费者都已处理过的槽位，释放其中的消息对象
+     * 在发布锁内进行，确保不会清掉发布方刚写入的新消息；由消费者在处理完一批消息后调用
+     */
+    private void clearConsumedSlots() {
+        long consumed = minProcessed(cursor.get());
+        if (consumed <= clearedSequence) {
+            return;
+        }
+        synchronized (this) {
+            long from = Math.max(clearedSequence + 1, consumed - slots.length + 1);
+            for (long sequence = from; sequence <= consumed; sequence++) {
+                Slot slot = slots[(int) sequence & mask];
+                if (slot.sequence == sequence) {
+                    slot.brokerId = null;
+                    slot.sessionId = null;
+                    slot.message = null;
+                }
+            }
+            clearedSequence = Math.max(clearedSequence, consumed);
+        }
+    }
+
+    private static final class Slot {
+        private volatile long sequence = -1;
+        private String brokerId;
+        private SessionID sessionId;
+        private Message message;
+    }
+
+    private final class Consumer implements Runnable {
+        private static final int SPIN_TRIES = 100;
+
+        private final InboundMessageHandler handler;
+
+        /**
+         * 已处理的最大序号，用于计算可清空的槽位
+         */
+        private volatile long processed = -1;
+        private volatile boolean running = true;
+
+        /**
+         * 是否已挂起等待新消息，发布方写入后据此唤醒
+         */
+        private volatile boolean parked;
+        private long dropped;
+        private Thread thread;
+
+        private Consumer(InboundMessageHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            long next = processed + 1;
+            int idleCount = 0;
+            while (running) {
+                long available = cursor.get();
+                if (next > available) {
+                    idleCount = idle(idleCount, next);
+                    continue;
+                }
+                idleCount = 0;
+
+                while (next <= available) {
+                    // 落后超过一整圈时跳到仍在缓冲区内的最早消息
+                    long oldest = cursor.get() - slots.length + 1;
+                    if (next < oldest) {
+                        skip(oldest - next);
+                        next = oldest;
+                    }
+
+                    Slot slot = slots[(int) next & mask];
+                    long before = slot.sequence;
+                    String brokerId = slot.brokerId;
+                    SessionID sessionId = slot.sessionId;
+                    Message message = slot.message;
+                    VarHandle.loadLoadFence();
+                    if (before != next || slot.sequence != next) {
+                        // 读取期间槽位被发布方覆盖，重新定位
+                        continue;
+                    }
+
+                    try {
+                        handler.onMessage(brokerId, sessionId, message);
+                    } catch (Exception e) {
+                        log.error("Inbound message handler {} failed", handler.getHandlerName(), e);
+                    }
+                    processed = next;
+                    next++;
+                }
+                clearConsumedSlots();
+            }
+        }
+
+        /**
+         * 空闲时先自旋、再让出CPU，仍没有新消息时挂起直到发布方唤醒
+         * 挂起前先声明parked再检查游标，与发布方先写游标再检查parked配合，不会错过唤醒
+         */
+        private int idle(int idleCount, long next) {
+            if (idleCount < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idleCount < SPIN_TRIES * 2) {
+                Thread.yield();
+            } else {
+                parked = true;
+                if (running && cursor.get() < next) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+            return idleCount < SPIN_TRIES * 2 ? idleCount + 1 : idleCount;
+        }
+
+        private void skip(long count) {
+            dropped += count;
+            log.warn("Inbound message handler {} fell behind by more than {} message(s), skipped {} ({} in total)",
+                    handler.getHandlerName(), slots.length, count, dropped);
+            try {
+                handler.onMessagesSkipped(count);
+            } catch (Exception e) {
+                log.error("Inbound message handler {} failed to handle skipped messages", handler.getHandlerName(), e);
+            }
+        }
+    }
+}
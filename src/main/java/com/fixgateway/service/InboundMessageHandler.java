@@ -0,0 +1,35 @@
+package com.fixgateway.service;
+
+import quickfix.Message;
+import quickfix.SessionID;
+
+/**
+ * 入站FIX消息的消费者
+ * 实现为Spring Bean后由InboundMessageBus自动注册，每个消费者在独立线程上按自己的节奏消费
+ */
+public interface InboundMessageHandler {
+
+    /**
+     * 处理一条入站消息
+     * 消息对象在所有消费者之间共享，消费者不得修改消息内容
+     * @param brokerId broker标识（来自未注册会话的消息为null）
+     * @param sessionId 会话ID
+     * @param message 入站消息
+     */
+    void onMessage(String brokerId, SessionID sessionId, Message message);
+
+    /**
+     * 消费者落后超过一整圈、有消息被覆盖而跳过时在消费者线程上调用
+     * 发布方不等待消费者，需要完整数据的消费者在此触发恢复，恢复耗时较长时应交给其他线程执行
+     * @param count 跳过的消息数
+     */
+    default void onMessagesSkipped(long count) {
+    }
+
+    /**
+     * 消费者名称，用于线程命名和日志
+     */
+    default String getHandlerName() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,265 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.FixSessionConfig;
+import com.fixgateway.util.FixMessageConverter;
+import com.fixgateway.util.OffHeapTradeReportStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.field.TradeRequestResult;
+import quickfix.field.TradeRequestStatus;
+import quickfix.fix44.TradeCaptureReport;
+import quickfix.fix44.TradeCaptureReportRequestAck;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地成交缓存
+ * 保存每个broker当日收到的TradeCaptureReport，由后台预取周期性刷新，
+ * REST查询在数据足够新鲜时直接由本地应答，避免每次都走一次FIX往返。
+ * 报告以原始FIX字节保存在每个broker的堆外slab中，堆上只有TradeReportID到记录句柄的映射，
+ * 命中时再解析为TradeCaptureReport
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocalTradeStore implements InboundMessageHandler {
+
+    /**
+     * 每个broker的本地成交数据，key为brokerId
+     */
+    private final Map<String, BrokerTrades> brokerTrades = new ConcurrentHashMap<>();
+
+    /**
+     * 按broker的session配置解析报告；FixSessionConfig经由FixApplication间接依赖本类，延迟获取以避免循环依赖
+     */
+    private final ObjectProvider<FixSessionConfig> fixSessionConfig;
+
+    /**
+     * 开始一次快照刷新
+     * @param brokerId broker标识
+     * @param tradeRequestID 快照请求的TradeRequestID
+     * @param tradeDate 快照对应的交易日，交易日切换时清空旧数据
+     */
+    public void beginRefresh(String brokerId, String tradeRequestID, LocalDate tradeDate) {
+        BrokerTrades trades = brokerTrades.computeIfAbsent(brokerId, id -> new BrokerTrades());
+        synchronized (trades) {
+            if (!tradeDate.equals(trades.tradeDate)) {
+                log.info("Trade date rolled over for broker {}: {} -> {}, clearing local trades",
+                        brokerId, trades.tradeDate, tradeDate);
+                trades.reportHandles.clear();
+                trades.reports.clear();
+                trades.tradeDate = tradeDate;
+                trades.asOfMillis = 0;
+            }
+            trades.refreshRequestID = tradeRequestID;
+            trades.refreshStartedMillis = System.currentTimeMillis();
+            trades.refreshReceived = 0;
+            trades.refreshExpected = 0;
+        }
+    }
+
+    /**
+     * 跳过的消息可能包含快照中的报告，本地数据不再完整：放弃进行中的刷新并把所有broker标记为过期，
+     * 在下一次预取快照完成前查询回退到broker
+     */
+    @Override
+    public void onMessagesSkipped(long count) {
+        for (Map.Entry<String, BrokerTrades> entry : brokerTrades.entrySet()) {
+            BrokerTrades trades = entry.getValue();
+            synchronized (trades) {
+                trades.asOfMillis = 0;
+                trades.refreshRequestID = null;
+            }
+            log.warn("Local trades for broker {} marked stale after {} inbound message(s) were skipped",
+                    entry.getKey(), count);
+        }
+    }
+
+    @Override
+    public void onMessage(String brokerId, SessionID sessionId, Message message) {
+        if (brokerId != null && message instanceof TradeCaptureReport) {
+            onTradeCaptureReport(brokerId, (TradeCaptureReport) message);
+        } else if (brokerId != null && message instanceof TradeCaptureReportRequestAck) {
+            onTradeCaptureReportRequestAck(brokerId, (TradeCaptureReportRequestAck) message);
+        }
+    }
+
+    /**
+     * 快照请求被拒绝时放弃本次刷新；broker确认没有成交时直接完成刷新；
+     * 确认给出报告数时记录下来，报告先于确认到齐时由确认完成刷新
+     */
+    private void onTradeCaptureReportRequestAck(String brokerId, TradeCaptureReportRequestAck ack) {
+        try {
+            if (!ack.isSetTradeRequestID()) {
+                return;
+            }
+            String tradeRequestID = ack.getTradeRequestID().getValue();
+            int result = ack.isSetTradeRequestResult()
+                    ? ack.getTradeRequestResult().getValue() : TradeRequestResult.SUCCESSFUL;
+            int status = ack.isSetTradeRequestStatus()
+                    ? ack.getTradeRequestStatus().getValue() : TradeRequestStatus.ACCEPTED;
+            if (status == TradeRequestStatus.REJECTED || result != TradeRequestResult.SUCCESSFUL) {
+                cancelRefresh(brokerId, tradeRequestID);
+            } else if (FixMessageConverter.isNoTradesAck(ack)) {
+                completeRefresh(brokerId, tradeRequestID);
+            } else if (ack.isSetTotNumTradeReports()) {
+                expectRefreshReports(brokerId, tradeRequestID, ack.getTotNumTradeReports().getValue());
+            }
+        } catch (Exception e) {
+            log.error("Error handling TradeCaptureReportRequestAck for broker: {}", brokerId, e);
+        }
+    }
+
+    /**
+     * 保存收到的TradeCaptureReport
+     * @param brokerId broker标识
+     * @param report 收到的报告
+     */
+    public void onTradeCaptureReport(String brokerId, TradeCaptureReport report) {
+        try {
+            BrokerTrades trades = brokerTrades.computeIfAbsent(brokerId, id -> new BrokerTrades());
+            String tradeRequestID = report.isSetTradeRequestID() ? report.getTradeRequestID().getValue() : null;
+            synchronized (trades) {
+                if (report.isSetTradeReportID()) {
+                    // 入站消息保留了收到时的原始字符串，本地构造的消息才需要重新编码
+                    String raw = report.toRawString() != null ? report.toRawString() : report.toString();
+                    String tradeReportID = report.getTradeReportID().getValue();
+                    // 每次快照都会重新收到全部成交，取代旧记录并在被取代的记录累积过多时压缩
+                    Long previous = trades.reportHandles.get(tradeReportID);
+                    trades.reportHandles.put(tradeReportID,
+                            previous != null ? trades.reports.replace(previous, raw) : trades.reports.append(raw));
+                    if (trades.reports.needsCompaction()) {
+                        trades.reports.compact(trades.reportHandles);
+                    }
+                }
+
+                if (tradeRequestID == null || !tradeRequestID.equals(trades.refreshRequestID)) {
+                    return;
+                }
+                trades.refreshReceived++;
+                boolean lastReport = report.isSetLastRptRequested() && report.getLastRptRequested().getValue();
+                int expected = report.isSetTotNumTradeReports()
+                        ? report.getTotNumTradeReports().getValue() : trades.refreshExpected;
+                boolean allReceived = expected > 0 && trades.refreshReceived >= expected;
+                if (lastReport || allReceived) {
+                    completeRefresh(brokerId, trades);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error storing TradeCaptureReport for broker: {}", brokerId, e);
+        }
+    }
+
+    /**
+     * 标记快照刷新完成（例如broker确认没有匹配的成交）
+     */
+    public void completeRefresh(String brokerId, String tradeRequestID) {
+        BrokerTrades trades = brokerTrades.get(brokerId);
+        if (trades == null) {
+            return;
+        }
+        synchronized (trades) {
+            if (tradeRequestID.equals(trades.refreshRequestID)) {
+                completeRefresh(brokerId, trades);
+            }
+        }
+    }
+
+    private void expectRefreshReports(String brokerId, String tradeRequestID, int total) {
+        BrokerTrades trades = brokerTrades.get(brokerId);
+        if (trades == null) {
+            return;
+        }
+        synchronized (trades) {
+            if (tradeRequestID.equals(trades.refreshRequestID)) {
+                trades.refreshExpected = total;
+                if (trades.refreshReceived >= total) {
+                    completeRefresh(brokerId, trades);
+                }
+            }
+        }
+    }
+
+    /**
+     * 放弃快照刷新，本地数据保持原有的新鲜度
+     */
+    public void cancelRefresh(String brokerId, String tradeRequestID) {
+        BrokerTrades trades = brokerTrades.get(brokerId);
+        if (trades == null) {
+            return;
+        }
+        synchronized (trades) {
+            if (tradeRequestID.equals(trades.refreshRequestID)) {
+                trades.refreshRequestID = null;
+                log.warn("Local trade snapshot refresh {} for broker {} was rejected", tradeRequestID, brokerId);
+            }
+        }
+    }
+
+    private void completeRefresh(String brokerId, BrokerTrades trades) {
+        trades.asOfMillis = trades.refreshStartedMillis;
+        trades.refreshRequestID = null;
+        log.info("Local trade snapshot refreshed for broker {}: {} report(s) received, {} trade(s) held in {} KB off-heap",
+                brokerId, trades.refreshReceived, trades.reportHandles.size(), trades.reports.getCapacityBytes() / 1024);
+    }
+
+    /**
+     * 在数据足够新鲜时从本地查找成交
+     * @param brokerId broker标识
+     * @param tradeReportID 交易报告ID
+     * @param maxStalenessMillis 可接受的最大陈旧时间（毫秒）
+     * @return 本地成交，若数据过旧或未命中则返回null
+     */
+    public TradeCaptureReport findFresh(String brokerId, String tradeReportID, long maxStalenessMillis) {
+        BrokerTrades trades = brokerTrades.get(brokerId);
+        if (trades == null || trades.asOfMillis == 0
+                || System.currentTimeMillis() - trades.asOfMillis > maxStalenessMillis) {
+            return null;
+        }
+        String raw;
+        // 压缩会移动记录，句柄查找与读取需和写入互斥
+        synchronized (trades) {
+            Long handle = trades.reportHandles.get(tradeReportID);
+            if (handle == null) {
+                return null;
+            }
+            raw = trades.reports.view(handle, null).getRawMessage();
+        }
+        try {
+            TradeCaptureReport report = new TradeCaptureReport();
+            report.fromString(raw, fixSessionConfig.getObject().getSessionDataDictionary(brokerId), false);
+            return report;
+        } catch (Exception e) {
+            log.warn("Unable to read local trade {} for broker {}: {}", tradeReportID, brokerId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 判断broker是否有尚未完成且未超时的快照刷新
+     * @param brokerId broker标识
+     * @param timeoutMillis 刷新超时时间（毫秒），超时的刷新视为已放弃
+     */
+    public boolean isRefreshing(String brokerId, long timeoutMillis) {
+        BrokerTrades trades = brokerTrades.get(brokerId);
+        return trades != null && trades.refreshRequestID != null
+                && System.currentTimeMillis() - trades.refreshStartedMillis < timeoutMillis;
+    }
+
+    private static class BrokerTrades {
+        private final Map<String, Long> reportHandles = new ConcurrentHashMap<>();
+        private final OffHeapTradeReportStore reports = new OffHeapTradeReportStore();
+        private volatile LocalDate tradeDate;
+        private volatile String refreshRequestID;
+        private volatile long refreshStartedMillis;
+        private volatile long asOfMillis;
+        private int refreshReceived;
+        private int refreshExpected;
+    }
+}
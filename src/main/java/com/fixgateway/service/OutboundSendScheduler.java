@@ -0,0 +1,189 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.config.FixSessionConfig;
+import com.fixgateway.util.TokenBucketRateLimiter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 出站请求发送调度
+ * 每个broker的发送受令牌桶限流，令牌充足且没有排队时请求直接在调用线程发送；
+ * 令牌不足时按请求类别进入各自的队列，由该broker自己的调度线程在令牌补充后发送：优先交互式请求，
+ * 两类都在排队时每连续发送若干个交互式请求后必须发送一个批量请求，保证批量请求的最低份额。
+ * 各broker的队列、锁和调度线程相互独立，一个broker的发送阻塞（如socket缓慢、会话锁被占用）不会推迟其他broker的请求
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboundSendScheduler {
+
+    private final FixSessionConfig fixSessionConfig;
+    private final BrokerConfig brokerConfig;
+
+    /**
+     * 每个broker的发送队列，key为brokerId
+     */
+    private final Map<String, BrokerQueue> brokerQueues = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (BrokerQueue queue : brokerQueues.values()) {
+            queue.dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * 提交一次发送
+     * @param brokerId broker标识
+     * @param lane 请求类别
+     * @param send 发送动作，排队时在该broker的调度线程上执行，需自行处理异常，并在请求已超时时跳过发送
+     */
+    public void submit(String brokerId, RequestLane lane, Runnable send) {
+        BrokerQueue queue = brokerQueue(brokerId);
+        boolean sendNow;
+        queue.lock.lock();
+        try {
+            sendNow = queue.isEmpty() && queue.rateLimiter.tryAcquire();
+            if (!sendNow) {
+                queue.add(lane, send);
+                queue.workAvailable.signal();
+                log.debug("Queued {} request for broker {}: {} interactive, {} bulk waiting",
+                        lane, brokerId, queue.interactive.size(), queue.bulk.size());
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        if (sendNow) {
+            send.run();
+        }
+    }
+
+    /**
+     * 在broker没有排队的请求且有空闲令牌时占用一个令牌，用于可以跳过的后台请求（如预取快照）
+     * @return 是否占用成功
+     */
+    public boolean tryAcquireIdle(String brokerId) {
+        BrokerQueue queue = brokerQueue(brokerId);
+        queue.lock.lock();
+        try {
+            return queue.isEmpty() && queue.rateLimiter.tryAcquire();
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    private BrokerQueue brokerQueue(String brokerId) {
+        return brokerQueues.computeIfAbsent(brokerId, id -> {
+            BrokerConfig.BrokerSessionConfig brokerSessionConfig = fixSessionConfig.getBrokerSessionConfig(id);
+            double permitsPerSecond = brokerSessionConfig != null ? brokerSessionConfig.getMaxRequestsPerSecond() : 5;
+            double bulkMinShare = Math.min(1, Math.max(0.01, brokerConfig.getLanes().getBulkMinShare()));
+            int interactivePerBulk = (int) Math.round((1 - bulkMinShare) / bulkMinShare);
+            BrokerQueue queue = new BrokerQueue(new TokenBucketRateLimiter(permitsPerSecond, permitsPerSecond),
+                    interactivePerBulk);
+            queue.dispatcher = new Thread(() -> dispatch(queue), "fix-send-scheduler-" + id);
+            queue.dispatcher.setDaemon(true);
+            queue.dispatcher.start();
+            return queue;
+        });
+    }
+
+    private void dispatch(BrokerQueue queue) {
+        List<Runnable> ready = new ArrayList<>();
+        queue.lock.lock();
+        try {
+            while (running) {
+                while (!queue.isEmpty() && queue.rateLimiter.tryAcquire()) {
+                    ready.add(queue.next());
+                }
+
+                if (!ready.isEmpty()) {
+                    // 发送在锁外执行，不阻塞调用线程提交
+                    queue.lock.unlock();
+                    try {
+                        for (Runnable send : ready) {
+                            runSafely(send);
+                        }
+                    } finally {
+                        ready.clear();
+                        queue.lock.lock();
+                    }
+                } else if (queue.isEmpty()) {
+                    queue.workAvailable.await();
+                } else {
+                    queue.workAvailable.awaitNanos(Math.max(1, queue.rateLimiter.nanosToNextPermit()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    private static void runSafely(Runnable send) {
+        try {
+            send.run();
+        } catch (Exception e) {
+            log.error("Queued FIX send failed", e);
+        }
+    }
+
+    /**
+     * 单个broker的限流器、分类别的发送队列与调度线程，队列由该broker的lock保护
+     */
+    private static class BrokerQueue {
+        private final TokenBucketRateLimiter rateLimiter;
+        private final int interactivePerBulk;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition workAvailable = lock.newCondition();
+        private final Deque<Runnable> interactive = new ArrayDeque<>();
+        private final Deque<Runnable> bulk = new ArrayDeque<>();
+        private Thread dispatcher;
+
+        /**
+         * 批量请求排队期间连续发送的交互式请求数
+         */
+        private int interactiveStreak;
+
+        private BrokerQueue(TokenBucketRateLimiter rateLimiter, int interactivePerBulk) {
+            this.rateLimiter = rateLimiter;
+            this.interactivePerBulk = interactivePerBulk;
+        }
+
+        private boolean isEmpty() {
+            return interactive.isEmpty() && bulk.isEmpty();
+        }
+
+        private void add(RequestLane lane, Runnable send) {
+            (lane == RequestLane.BULK ? bulk : interactive).addLast(send);
+        }
+
+        private Runnable next() {
+            if (bulk.isEmpty()) {
+                interactiveStreak = 0;
+                return interactive.pollFirst();
+            }
+            if (interactive.isEmpty() || interactiveStreak >= interactivePerBulk) {
+                interactiveStreak = 0;
+                return bulk.pollFirst();
+            }
+            interactiveStreak++;
+            return interactive.pollFirst();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.fixgateway.service;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * 一次对账运行
+ * 两侧成交按匹配键的哈希值分区写入临时文件（Grace hash join），执行时各分区并行地
+ * 以左侧建哈希表、右侧探测，同一时刻内存中只有正在处理的分区，内存占用与总成交数无关
+ */
+@Slf4j
+public class ReconciliationRun implements Closeable {
+
+    /**
+     * 结果状态
+     */
+    public enum Status {
+        /** 键相同且各字段在容差内 */
+        MATCHED,
+        /** 键相同但字段不一致 */
+        BREAK,
+        /** 只在左侧出现 */
+        UNMATCHED_LEFT,
+        /** 只在右侧出现 */
+        UNMATCHED_RIGHT
+    }
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final String[] REPORT_HEADER = {
+        "status", "key", "leftRef", "rightRef", "leftSymbol", "rightSymbol", "leftSide", "rightSide",
+        "leftQty", "rightQty", "leftPrice", "rightPrice", "reason"
+    };
+
+    private final String leftName;
+    private final String rightName;
+    private final int partitions;
+    private final double qtyTolerance;
+    private final double priceTolerance;
+    private final boolean includeMatched;
+
+    private final Path directory;
+    private final DataOutputStream[] leftOutputs;
+    private final DataOutputStream[] rightOutputs;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private long leftCount;
+    private long rightCount;
+
+    /**
+     * @param leftName 左侧名称（如broker标识），用于日志
+     * @param rightName 右侧名称（如internal），用于日志
+     * @param partitions 分区数
+     * @param qtyTolerance 数量允许的绝对误差
+     * @param priceTolerance 价格允许的绝对误差
+     * @param includeMatched 报告中是否输出匹配成功的记录
+     */
+    public ReconciliationRun(String leftName, String rightName, int partitions,
+                             double qtyTolerance, double priceTolerance, boolean includeMatched) throws IOException {
+        this.leftName = leftName;
+        this.rightName = rightName;
+        this.partitions = partitions;
+        this.qtyTolerance = qtyTolerance;
+        this.priceTolerance = priceTolerance;
+        this.includeMatched = includeMatched;
+        this.directory = Files.createTempDirectory("reconciliation-");
+        this.leftOutputs = new DataOutputStream[partitions];
+        this.rightOutputs = new DataOutputStream[partitions];
+    }
+
+    /**
+     * 添加左侧成交
+     */
+    public void addLeft(TradeRecord record) throws IOException {
+        write(leftOutputs, "left", record);
+        leftCount++;
+    }
+
+    /**
+     * 添加右侧成交
+     */
+    public void addRight(TradeRecord record) throws IOException {
+        write(rightOutputs, "right", record);
+        rightCount++;
+    }
+
+    /**
+     * 并行执行各分区的哈希连接，并以CSV格式输出对账报告
+     * @param parallelism 并行度
+     * @param out 报告输出流
+     * @return 对账结果统计
+     */
+    public Summary execute(int parallelism, OutputStream out) throws IOException {
+        long startNanos = System.nanoTime();
+        closeOutputs(leftOutputs);
+        closeOutputs(rightOutputs);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(String.join(",", REPORT_HEADER));
+        writer.write('\n');
+
+        Counters counters = new Counters();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, partitions).parallel().forEach(partition -> {
+                try {
+                    joinPartition(partition, writer, counters);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reconciliation interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException
+                    ? ((UncheckedIOException) e.getCause()).getCause()
+                    : new IOException("Reconciliation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        writer.flush();
+
+        Summary summary = new Summary(leftCount, rightCount, counters.matched.get(), counters.breaks.get(),
+                counters.unmatchedLeft.get(), counters.unmatchedRight.get(), (System.nanoTime() - startNanos) / 1_000_000);
+        log.info("Reconciled {} ({} trades) against {} ({} trades) in {} ms: {} matched, {} breaks, {} unmatched {}, {} unmatched {}",
+                leftName, leftCount, rightName, rightCount, summary.getElapsedMillis(), summary.getMatched(), summary.getBreaks(),
+                summary.getUnmatchedLeft(), leftName, summary.getUnmatchedRight(), rightName);
+        return summary;
+    }
+
+    /**
+     * 删除临时分区文件，可重复调用（响应体执行结束和异步请求结束时都会调用）
+     */
+    @Override
+    public void close() {
+        if (closed.getAndSet(true)) {
+            return;
+        }
+        closeOutputs(leftOutputs);
+        closeOutputs(rightOutputs);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Error cleaning up reconciliation directory: {}", directory, e);
+        }
+        directory.toFile().delete();
+    }
+
+    private void joinPartition(int partition, Writer writer, Counters counters) throws IOException {
+        // 左侧分区建哈希表，相同键的多条记录以链表串联
+        Map<String, TradeRecord> table = new HashMap<>();
+        Path leftFile = partitionFile("left", partition);
+        if (Files.exists(leftFile)) {
+            try (DataInputStream in = openPartition(leftFile)) {
+                TradeRecord record;
+                while ((record = TradeRecord.read(in)) != null) {
+                    TradeRecord previous = table.put(record.key, record);
+                    record.next = previous;
+                }
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        Path rightFile = partitionFile("right", partition);
+        if (Files.exists(rightFile)) {
+            try (DataInputStream in = openPartition(rightFile)) {
+                TradeRecord right;
+                while ((right = TradeRecord.read(in)) != null) {
+                    flushIfLarge(report, writer);
+                    TradeRecord left = firstUnmatched(table.get(right.key));
+                    if (left == null) {
+                        counters.unmatchedRight.incrementAndGet();
+                        appendRow(report, Status.UNMATCHED_RIGHT, right.key, null, right, null);
+                        continue;
+                    }
+                    left.matched = true;
+                    String reason = compare(left, right);
+                    if (reason == null) {
+                        counters.matched.incrementAndGet();
+                        if (includeMatched) {
+                            appendRow(report, Status.MATCHED, right.key, left, right, null);
+                        }
+                    } else {
+                        counters.breaks.incrementAndGet();
+                        appendRow(report, Status.BREAK, right.key, left, right, reason);
+                    }
+                }
+            }
+        }
+
+        for (TradeRecord chain : table.values()) {
+            for (TradeRecord left = chain; left != null; left = left.next) {
+                if (!left.matched) {
+                    counters.unmatchedLeft.incrementAndGet();
+                    appendRow(report, Status.UNMATCHED_LEFT, left.key, left, null, null);
+                }
+            }
+            flushIfLarge(report, writer);
+        }
+        flush(report, writer);
+    }
+
+    private static TradeRecord firstUnmatched(TradeRecord chain) {
+        for (TradeRecord record = chain; record != null; record = record.next) {
+            if (!record.matched) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 比较匹配键相同的两条成交
+     * @return 不一致的原因，一致时返回null
+     */
+    private String compare(TradeRecord left, TradeRecord right) {
+        StringBuilder reason = new StringBuilder();
+        if (left.symbol != null && right.symbol != null && !left.symbol.equals(right.symbol)) {
+            reason.append("symbol;");
+        }
+        if (left.side != 0 && right.side != 0 && left.side != right.side) {
+            reason.append("side;");
+        }
+        if (!withinTolerance(left.qty, right.qty, qtyTolerance)) {
+            reason.append("qty;");
+        }
+        if (!withinTolerance(left.price, right.price, priceTolerance)) {
+            reason.append("price;");
+        }
+        return reason.length() == 0 ? null : reason.substring(0, reason.length() - 1);
+    }
+
+    private static boolean withinTolerance(double left, double right, double tolerance) {
+        if (Double.isNaN(left) || Double.isNaN(right)) {
+            return Double.isNaN(left) == Double.isNaN(right);
+        }
+        return Math.abs(left - right) <= tolerance;
+    }
+
+    private void write(DataOutputStream[] outputs, String side, TradeRecord record) throws IOException {
+        int partition = Math.floorMod(record.key.hashCode(), partitions);
+        DataOutputStream output = outputs[partition];
+        if (output == null) {
+            output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(partitionFile(side, partition)), BUFFER_SIZE));
+            outputs[partition] = output;
+        }
+        record.write(output);
+    }
+
+    private Path partitionFile(String side, int partition) {
+        return directory.resolve(side + "-" + partition + ".bin");
+    }
+
+    private static DataInputStream openPartition(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    }
+
+    private static void closeOutputs(DataOutputStream[] outputs) {
+        for (int i = 0; i < outputs.length; i++) {
+            if (outputs[i] != null) {
+                try {
+                    outputs[i].close();
+                } catch (IOException e) {
+                    log.warn("Error closing reconciliation partition", e);
+                }
+                outputs[i] = null;
+            }
+        }
+    }
+
+    private static void flushIfLarge(StringBuilder report, Writer writer) throws IOException {
+        if (report.length() >= 64 * 1024) {
+            flush(report, writer);
+            report.setLength(0);
+        }
+    }
+
+    private static void flush(StringBuilder report, Writer writer) throws IOException {
+        if (report.length() == 0) {
+            return;
+        }
+        synchronized (writer) {
+            writer.write(report.toString());
+        }
+    }
+
+    private static void appendRow(StringBuilder report, Status status, String key,
+                                  TradeRecord left, TradeRecord right, String reason) {
+        report.append(status.name()).append(',');
+        appendValue(report, key).append(',');
+        appendValue(report, left != null ? left.ref : null).append(',');
+        appendValue(report, right != null ? right.ref : null).append(',');
+        appendValue(report, left != null ? left.symbol : null).append(',');
+        appendValue(report, right != null ? right.symbol : null).append(',');
+        if (left != null && left.side != 0) {
+            report.append(left.side);
+        }
+        report.append(',');
+        if (right != null && right.side != 0) {
+            report.append(right.side);
+        }
+        report.append(',');
+        appendNumber(report, left != null ? left.qty : Double.NaN).append(',');
+        appendNumber(report, right != null ? right.qty : Double.NaN).append(',');
+        appendNumber(report, left != null ? left.price : Double.NaN).append(',');
+        appendNumber(report, right != null ? right.price : Double.NaN).append(',');
+        appendValue(report, reason).append('\n');
+    }
+
+    private static StringBuilder appendValue(StringBuilder report, String value) {
+        if (value == null) {
+            return report;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return report.append(value);
+        }
+        return report.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static StringBuilder appendNumber(StringBuilder report, double value) {
+        return Double.isNaN(value) ? report : report.append(value);
+    }
+
+    /**
+     * 参与对账的一条成交
+     */
+    public static class TradeRecord {
+        private final String key;
+        private final String ref;
+        private final String symbol;
+        private final char side;
+        private final double qty;
+        private final double price;
+        private TradeRecord next;
+        private boolean matched;
+
+        /**
+         * @param key 匹配键（ExecID或TradeReportID）
+         * @param ref 记录在来源中的标识，用于报告
+         * @param side FIX Side取值，未知时为0
+         * @param qty 数量，未知时为NaN
+         * @param price 价格，未知时为NaN
+         */
+        public TradeRecord(String key, String ref, String symbol, char side, double qty, double price) {
+            this.key = key;
+            this.ref = ref;
+            this.symbol = symbol;
+            this.side = side;
+            this.qty = qty;
+            this.price = price;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(key);
+            writeNullable(out, ref);
+            writeNullable(out, symbol);
+            out.writeChar(side);
+            out.writeDouble(qty);
+            out.writeDouble(price);
+        }
+
+        private static TradeRecord read(DataInputStream in) throws IOException {
+            String key;
+            try {
+                key = in.readUTF();
+            } catch (EOFException e) {
+                return null;
+            }
+            return new TradeRecord(key, readNullable(in), readNullable(in), in.readChar(), in.readDouble(), in.readDouble());
+        }
+
+        private static void writeNullable(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readNullable(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+
+    /**
+     * 对账结果统计
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Summary {
+        private final long leftCount;
+        private final long rightCount;
+        private final long matched;
+        private final long breaks;
+        private final long unmatchedLeft;
+        private final long unmatchedRight;
+        private final long elapsedMillis;
+    }
+
+    /**
+     * 各分区并行累加的计数
+     */
+    private static class Counters {
+        private final AtomicLong matched = new AtomicLong();
+        private final AtomicLong breaks = new AtomicLong();
+        private final AtomicLong unmatchedLeft = new AtomicLong();
+        private final AtomicLong unmatchedRight = new AtomicLong();
+    }
+}
@@ -0,0 +1,254 @@
+package com.fixgateway.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 成交对账服务
+ * 将broker经FIX发来的成交（本地成交查询引擎中的数据）与内部簿记记录（CSV）或另一个broker的成交
+ * 按ExecID或TradeReportID做分区并行哈希连接，数量与价格按容差比较，输出匹配、差异与单边记录
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReconciliationService {
+
+    /**
+     * 分区数，决定执行时单个分区的大小，即同时驻留内存的数据量
+     */
+    private static final int PARTITIONS = 256;
+
+    /**
+     * 匹配键
+     */
+    public enum MatchKey {
+        EXEC_ID("execID"),
+        TRADE_REPORT_ID("tradeReportID");
+
+        private final String column;
+
+        MatchKey(String column) {
+            this.column = column;
+        }
+
+        /**
+         * 按参数名解析匹配键，如execID、tradeReportID
+         */
+        public static MatchKey fromName(String name) {
+            for (MatchKey key : values()) {
+                if (key.column.equalsIgnoreCase(name) || key.name().equalsIgnoreCase(name)) {
+                    return key;
+                }
+            }
+            throw new IllegalArgumentException("Invalid match key: " + name);
+        }
+    }
+
+    private final TradeQueryEngine tradeQueryEngine;
+
+    /**
+     * 准备broker成交与内部簿记记录的对账：左侧为broker成交，右侧为内部CSV
+     * CSV首行为列名（不区分大小写）：匹配键列（execID或tradeReportID）必需，
+     * 可选列为id、symbol、side（FIX取值或BUY/SELL）、qty、price
+     * @param csv 内部簿记记录
+     * @return 已完成分区的对账运行，调用方负责执行并关闭
+     */
+    public ReconciliationRun prepareInternal(String brokerId, Instant fromTime, Instant toTime, InputStream csv,
+                                             MatchKey key, double qtyTolerance, double priceTolerance,
+                                             boolean includeMatched) throws IOException {
+        ReconciliationRun run = new ReconciliationRun(brokerId, "internal", PARTITIONS,
+                qtyTolerance, priceTolerance, includeMatched);
+        try {
+            addBrokerTrades(run, true, brokerId, fromTime, toTime, key);
+            addInternalTrades(run, csv, key);
+            return run;
+        } catch (IOException | RuntimeException e) {
+            run.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 准备两个broker之间的对账（如give-up交易的执行broker与清算broker）
+     * @return 已完成分区的对账运行，调用方负责执行并关闭
+     */
+    public ReconciliationRun prepareBrokers(String brokerId, String counterpartyBrokerId, Instant fromTime, Instant toTime,
+                                            MatchKey key, double qtyTolerance, double priceTolerance,
+                                            boolean includeMatched) throws IOException {
+        ReconciliationRun run = new ReconciliationRun(brokerId, counterpartyBrokerId, PARTITIONS,
+                qtyTolerance, priceTolerance, includeMatched);
+        try {
+            addBrokerTrades(run, true, brokerId, fromTime, toTime, key);
+            addBrokerTrades(run, false, counterpartyBrokerId, fromTime, toTime, key);
+            return run;
+        } catch (IOException | RuntimeException e) {
+            run.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 执行对账并输出CSV报告，完成后删除临时分区文件
+     */
+    public ReconciliationRun.Summary execute(ReconciliationRun run, OutputStream out) throws IOException {
+        try {
+            return run.execute(Runtime.getRuntime().availableProcessors(), out);
+        } finally {
+            run.close();
+        }
+    }
+
+    private void addBrokerTrades(ReconciliationRun run, boolean left, String brokerId,
+                                 Instant fromTime, Instant toTime, MatchKey key) throws IOException {
+        TradeQueryEngine.ScanCursor cursor = new TradeQueryEngine.ScanCursor();
+        TradeQueryEngine.TradeBatch batch = new TradeQueryEngine.TradeBatch(TradeExportService.BATCH_SIZE);
+        long skipped = 0;
+        while (tradeQueryEngine.scan(brokerId, fromTime, toTime, cursor, batch) > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                String matchKey = key == MatchKey.EXEC_ID ? batch.getExecID(i) : batch.getTradeReportID(i);
+                if (matchKey == null) {
+                    skipped++;
+                    continue;
+                }
+                ReconciliationRun.TradeRecord record = new ReconciliationRun.TradeRecord(matchKey,
+                        batch.getTradeReportID(i), batch.getSymbol(i), batch.getSide(i),
+                        batch.getLastQty(i), batch.getLastPx(i));
+                if (left) {
+                    run.addLeft(record);
+                } else {
+                    run.addRight(record);
+                }
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} trade(s) of broker {} without {}", skipped, brokerId, key.column);
+        }
+    }
+
+    private void addInternalTrades(ReconciliationRun run, InputStream csv, MatchKey key) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 64 * 1024);
+        String headerLine = reader.readLine();
+        if (headerLine == null) {
+            throw new IllegalArgumentException("Internal trade file is empty");
+        }
+        List<String> header = parseCsvLine(headerLine);
+        int keyColumn = column(header, key.column);
+        if (keyColumn < 0) {
+            throw new IllegalArgumentException("Internal trade file has no " + key.column + " column");
+        }
+        int idColumn = column(header, "id");
+        int symbolColumn = column(header, "symbol");
+        int sideColumn = column(header, "side");
+        int qtyColumn = column(header, "qty");
+        int priceColumn = column(header, "price");
+
+        String line;
+        long lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> values = parseCsvLine(line);
+            String matchKey = value(values, keyColumn);
+            if (matchKey == null) {
+                throw new IllegalArgumentException("Missing " + key.column + " at line " + lineNumber);
+            }
+            try {
+                run.addRight(new ReconciliationRun.TradeRecord(matchKey,
+                        idColumn >= 0 ? value(values, idColumn) : "line " + lineNumber,
+                        value(values, symbolColumn),
+                        parseSide(value(values, sideColumn)),
+                        parseNumber(value(values, qtyColumn)),
+                        parseNumber(value(values, priceColumn))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number at line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static int column(List<String> header, String name) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String value(List<String> values, int column) {
+        if (column < 0 || column >= values.size()) {
+            return null;
+        }
+        String value = values.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static char parseSide(String side) {
+        if (side == null) {
+            return 0;
+        }
+        switch (side.toUpperCase(Locale.ROOT)) {
+            case "BUY":
+            case "B":
+                return '1';
+            case "SELL":
+            case "S":
+                return '2';
+            default:
+                if (side.length() != 1) {
+                    throw new IllegalArgumentException("Invalid side: " + side);
+                }
+                return side.charAt(0);
+        }
+    }
+
+    private static double parseNumber(String value) {
+        return value != null ? Double.parseDouble(value) : Double.NaN;
+    }
+
+    /**
+     * 解析一行CSV，支持双引号包围的字段及字段内的""转义
+     */
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else if (c != '\r') {
+                current.append(c);
+            }
+        }
+        values.add(current.toString());
+        return values;
+    }
+}
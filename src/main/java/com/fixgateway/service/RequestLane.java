@@ -0,0 +1,31 @@
+package com.fixgateway.service;
+
+import java.util.Locale;
+
+/**
+ * 请求类别
+ * 交互式查询（交易员界面的单笔查询）与批量拉取（对账任务的大范围查询）分别占用独立的并发名额和发送队列，
+ * 发送调度优先交互式请求，同时保证批量请求的最低份额
+ */
+public enum RequestLane {
+    INTERACTIVE,
+    BULK;
+
+    /**
+     * 解析请求类别，请求级取值优先于调用方级取值，均未指定时使用默认值
+     * @param requestValue 请求中指定的类别
+     * @param callerValue 调用方指定的类别（如X-Request-Lane请求头）
+     * @param defaultLane 默认类别
+     */
+    public static RequestLane resolve(String requestValue, String callerValue, RequestLane defaultLane) {
+        String value = requestValue != null && !requestValue.isEmpty() ? requestValue : callerValue;
+        if (value == null || value.isEmpty()) {
+            return defaultLane;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid request lane: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import quickfix.Message;
+import quickfix.field.SendingTime;
+
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 请求分阶段耗时追踪
+ * 每个REST请求在各阶段记录一次System.nanoTime()，发出FIX请求后以TradeRequestID关联入站报告，
+ * 请求结束时计算各阶段耗时，超过阈值的完整追踪保存在有界的慢请求列表中
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RequestTracer {
+
+    /**
+     * 追踪阶段，按请求处理顺序排列，每个阶段的耗时为距上一个已到达阶段的时间
+     */
+    public enum Stage {
+        /** 请求进入处理器（请求体尚未反序列化） */
+        RECEIVED("received"),
+        /** 请求体反序列化完成，进入controller */
+        DESERIALIZED("deserialize"),
+        /** 开始发送FIX请求（含本地缓存查找、准入控制） */
+        SEND_STARTED("prepare"),
+        /** 发送动作开始执行（令牌不足时含在发送调度中的排队时间） */
+        SEND_DEQUEUED("queue"),
+        /** Session.sendToTarget返回 */
+        SENT("send"),
+        /** fromApp收到对应的报告（含网络、broker处理、QuickFIX/J入站队列） */
+        RESPONSE_RECEIVED("broker"),
+        /** 等待线程被唤醒 */
+        RESPONSE_DISPATCHED("dispatch"),
+        /** FixMessageConverter转换完成 */
+        RESPONSE_CONVERTED("convert"),
+        /** 开始序列化响应 */
+        SERIALIZE_STARTED("handler"),
+        /** 响应写出完成 */
+        COMPLETED("serialize");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final BrokerConfig brokerConfig;
+
+    /**
+     * 已发出FIX请求、等待入站报告的追踪，key为TradeRequestID
+     */
+    private final Map<String, Trace> tracesByRequestId = new ConcurrentHashMap<>();
+
+    /**
+     * 最近的慢请求追踪
+     */
+    private final Deque<Map<String, Object>> slowTraces = new ArrayDeque<>();
+
+    /**
+     * 在当前线程上开始一次追踪
+     */
+    public void begin(String path) {
+        if (!brokerConfig.getTracing().isEnabled()) {
+            return;
+        }
+        Trace trace = new Trace(path);
+        trace.mark(Stage.RECEIVED);
+        CURRENT.set(trace);
+    }
+
+    /**
+     * 记录当前线程上追踪的阶段
+     */
+    public void mark(Stage stage) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    /**
+     * 将当前线程上的追踪传递给在其他线程上执行的任务
+     * 任务执行期间该线程上的mark记录到同一个追踪，执行完后恢复该线程原有的追踪
+     * @return 当前线程没有追踪时原样返回task
+     */
+    public Runnable propagate(Runnable task) {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            Trace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try {
+                task.run();
+            } finally {
+                if (previous != null) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * 将当前线程上的追踪与发出的FIX请求关联
+     */
+    public void bind(String tradeRequestID, String brokerId) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.tradeRequestID = tradeRequestID;
+            trace.brokerId = brokerId;
+            tracesByRequestId.put(tradeRequestID, trace);
+        }
+    }
+
+    /**
+     * 在FIX线程上记录入站报告到达
+     * @param tradeRequestID 报告的TradeRequestID
+     * @param message 入站报告，用于读取头部的SendingTime
+     */
+    public void markResponseReceived(String tradeRequestID, Message message) {
+        Trace trace = tracesByRequestId.remove(tradeRequestID);
+        if (trace == null) {
+            return;
+        }
+        trace.mark(Stage.RESPONSE_RECEIVED);
+        try {
+            if (message.getHeader().isSetField(SendingTime.FIELD)) {
+                long sendingTimeMillis = message.getHeader().getUtcTimeStamp(SendingTime.FIELD)
+                        .toInstant(ZoneOffset.UTC).toEpochMilli();
+                trace.sendingTimeLagMillis = System.currentTimeMillis() - sendingTimeMillis;
+            }
+        } catch (Exception e) {
+            log.debug("Unable to read SendingTime for TradeRequestID: {}", tradeRequestID, e);
+        }
+    }
+
+    /**
+     * 生成当前线程上追踪到目前为止的耗时分解，用于调试响应头
+     * @return 形如"deserialize=0.120ms;send=0.045ms;broker=12.300ms"，无追踪时返回null
+     */
+    public String currentBreakdown() {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return null;
+        }
+        StringBuilder header = new StringBuilder();
+        trace.breakdown().forEach((label, millis) -> {
+            if (header.length() > 0) {
+                header.append(';');
+            }
+            header.append(label).append('=').append(String.format("%.3fms", millis));
+        });
+        return header.toString();
+    }
+
+    /**
+     * 结束当前线程上的追踪，超过阈值时保存完整追踪
+     */
+    public void end(int status) {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+        if (trace.tradeRequestID != null) {
+            tracesByRequestId.remove(trace.tradeRequestID);
+        }
+        trace.mark(Stage.COMPLETED);
+
+        BrokerConfig.TracingConfig config = brokerConfig.getTracing();
+        double totalMillis = (trace.stageNanos.get(Stage.COMPLETED.ordinal())
+                - trace.stageNanos.get(Stage.RECEIVED.ordinal())) / 1_000_000.0;
+        if (totalMillis < config.getSlowThresholdMillis()) {
+            return;
+        }
+
+        Map<String, Object> slowTrace = new LinkedHashMap<>();
+        slowTrace.put("timestamp", trace.startEpochMillis);
+        slowTrace.put("path", trace.path);
+        slowTrace.put("status", status);
+        slowTrace.put("tradeRequestID", trace.tradeRequestID);
+        slowTrace.put("brokerId", trace.brokerId);
+        slowTrace.put("totalMillis", totalMillis);
+        slowTrace.put("stagesMillis", trace.breakdown());
+        if (trace.sendingTimeLagMillis != null) {
+            // 本机收到时间与broker SendingTime之差，受两端时钟偏差影响
+            slowTrace.put("sendingTimeLagMillis", trace.sendingTimeLagMillis);
+        }
+        log.warn("Slow request {} (TradeRequestID: {}) took {} ms: {}",
+                trace.path, trace.tradeRequestID, String.format("%.3f", totalMillis), slowTrace.get("stagesMillis"));
+
+        synchronized (slowTraces) {
+            slowTraces.addFirst(slowTrace);
+            while (slowTraces.size() > config.getSlowTraceCapacity()) {
+                slowTraces.removeLast();
+            }
+        }
+    }
+
+    /**
+     * 获取最近的慢请求追踪，最新的在前
+     */
+    public List<Map<String, Object>> getSlowTraces() {
+        synchronized (slowTraces) {
+            return new ArrayList<>(slowTraces);
+        }
+    }
+
+    private static class Trace {
+        private final String path;
+        private final long startEpochMillis = System.currentTimeMillis();
+        /**
+         * 各阶段到达时间，发送阶段可能在发送调度线程上记录
+         */
+        private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+        private volatile String tradeRequestID;
+        private volatile String brokerId;
+        private volatile Long sendingTimeLagMillis;
+
+        private Trace(String path) {
+            this.path = path;
+        }
+
+        private void mark(Stage stage) {
+            stageNanos.set(stage.ordinal(), System.nanoTime());
+        }
+
+        private Map<String, Double> breakdown() {
+            Map<String, Double> stages = new LinkedHashMap<>();
+            long previous = stageNanos.get(Stage.RECEIVED.ordinal());
+            for (Stage stage : Stage.values()) {
+                long at = stageNanos.get(stage.ordinal());
+                if (stage == Stage.RECEIVED || at == 0) {
+                    continue;
+                }
+                stages.put(stage.label, (at - previous) / 1_000_000.0);
+                previous = at;
+            }
+            return stages;
+        }
+    }
+}
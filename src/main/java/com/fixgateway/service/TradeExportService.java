@@ -0,0 +1,189 @@
+package com.fixgateway.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 成交导出服务
+ * 从本地成交查询引擎按固定大小的批次流式导出某个broker在时间范围内的成交，
+ * 导出过程中只持有一个批次的数据，内存占用与导出行数无关
+ *
+ * Arrow格式在JDK 16及以上运行时需要添加JVM参数 --add-opens=java.base/java.nio=ALL-UNNAMED
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TradeExportService {
+
+    /**
+     * 每批导出的行数
+     */
+    public static final int BATCH_SIZE = 4096;
+
+    private static final String[] CSV_HEADER = {
+        "tradeReportID", "execID", "symbol", "side", "lastQty", "lastPx", "transactTime", "tradeDate"
+    };
+
+    private static final Schema ARROW_SCHEMA = new Schema(List.of(
+        Field.nullable("tradeReportID", new ArrowType.Utf8()),
+        Field.nullable("execID", new ArrowType.Utf8()),
+        Field.nullable("symbol", new ArrowType.Utf8()),
+        Field.nullable("side", new ArrowType.Utf8()),
+        Field.nullable("lastQty", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+        Field.nullable("lastPx", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+        Field.nullable("transactTime", new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC")),
+        Field.nullable("tradeDate", new ArrowType.Utf8())
+    ));
+
+    private final TradeQueryEngine tradeQueryEngine;
+
+    /**
+     * 以CSV格式导出成交
+     * @param brokerId broker标识
+     * @param fromTime TransactTime下限，包含
+     * @param toTime TransactTime上限，不包含
+     * @param out 输出流
+     * @return 导出的行数
+     */
+    public long exportCsv(String brokerId, Instant fromTime, Instant toTime, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(String.join(",", CSV_HEADER));
+        writer.write('\n');
+
+        TradeQueryEngine.ScanCursor cursor = new TradeQueryEngine.ScanCursor();
+        TradeQueryEngine.TradeBatch batch = new TradeQueryEngine.TradeBatch(BATCH_SIZE);
+        long rows = 0;
+        while (tradeQueryEngine.scan(brokerId, fromTime, toTime, cursor, batch) > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                writeCsvValue(writer, batch.getTradeReportID(i));
+                writer.write(',');
+                writeCsvValue(writer, batch.getExecID(i));
+                writer.write(',');
+                writeCsvValue(writer, batch.getSymbol(i));
+                writer.write(',');
+                if (batch.getSide(i) != 0) {
+                    writer.write(batch.getSide(i));
+                }
+                writer.write(',');
+                if (!Double.isNaN(batch.getLastQty(i))) {
+                    writer.write(Double.toString(batch.getLastQty(i)));
+                }
+                writer.write(',');
+                if (!Double.isNaN(batch.getLastPx(i))) {
+                    writer.write(Double.toString(batch.getLastPx(i)));
+                }
+                writer.write(',');
+                writer.write(Instant.ofEpochMilli(batch.getTransactTime(i)).toString());
+                writer.write(',');
+                writeCsvValue(writer, batch.getTradeDate(i));
+                writer.write('\n');
+            }
+            rows += batch.size();
+            // 每批刷新一次，使数据以分块方式持续发送给客户端
+            writer.flush();
+        }
+        writer.flush();
+        log.info("Exported {} trade(s) for broker {} as CSV", rows, brokerId);
+        return rows;
+    }
+
+    /**
+     * 以Arrow IPC流格式导出成交，每个批次对应一个record batch
+     * @param brokerId broker标识
+     * @param fromTime TransactTime下限，包含
+     * @param toTime TransactTime上限，不包含
+     * @param out 输出流
+     * @return 导出的行数
+     */
+    public long exportArrow(String brokerId, Instant fromTime, Instant toTime, OutputStream out) throws IOException {
+        long rows = 0;
+        try (BufferAllocator allocator = new RootAllocator();
+             VectorSchemaRoot root = VectorSchemaRoot.create(ARROW_SCHEMA, allocator);
+             ArrowStreamWriter writer = new ArrowStreamWriter(root, null, Channels.newChannel(out))) {
+
+            VarCharVector tradeReportIDs = (VarCharVector) root.getVector("tradeReportID");
+            VarCharVector execIDs = (VarCharVector) root.getVector("execID");
+            VarCharVector symbols = (VarCharVector) root.getVector("symbol");
+            VarCharVector sides = (VarCharVector) root.getVector("side");
+            Float8Vector lastQtys = (Float8Vector) root.getVector("lastQty");
+            Float8Vector lastPxs = (Float8Vector) root.getVector("lastPx");
+            TimeStampMilliTZVector transactTimes = (TimeStampMilliTZVector) root.getVector("transactTime");
+            VarCharVector tradeDates = (VarCharVector) root.getVector("tradeDate");
+
+            writer.start();
+            TradeQueryEngine.ScanCursor cursor = new TradeQueryEngine.ScanCursor();
+            TradeQueryEngine.TradeBatch batch = new TradeQueryEngine.TradeBatch(BATCH_SIZE);
+            while (tradeQueryEngine.scan(brokerId, fromTime, toTime, cursor, batch) > 0) {
+                root.allocateNew();
+                for (int i = 0; i < batch.size(); i++) {
+                    setString(tradeReportIDs, i, batch.getTradeReportID(i));
+                    setString(execIDs, i, batch.getExecID(i));
+                    setString(symbols, i, batch.getSymbol(i));
+                    setString(sides, i, batch.getSide(i) != 0 ? String.valueOf(batch.getSide(i)) : null);
+                    setDouble(lastQtys, i, batch.getLastQty(i));
+                    setDouble(lastPxs, i, batch.getLastPx(i));
+                    transactTimes.setSafe(i, batch.getTransactTime(i));
+                    setString(tradeDates, i, batch.getTradeDate(i));
+                }
+                root.setRowCount(batch.size());
+                writer.writeBatch();
+                rows += batch.size();
+            }
+            writer.end();
+        }
+        log.info("Exported {} trade(s) for broker {} as Arrow IPC stream", rows, brokerId);
+        return rows;
+    }
+
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void setString(VarCharVector vector, int index, String value) {
+        if (value == null) {
+            vector.setNull(index);
+        } else {
+            vector.setSafe(index, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void setDouble(Float8Vector vector, int index, double value) {
+        if (Double.isNaN(value)) {
+            vector.setNull(index);
+        } else {
+            vector.setSafe(index, value);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.FixSessionConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quickfixj.CharsetSupport;
+import org.springframework.stereotype.Service;
+import quickfix.ConfigError;
+import quickfix.DataDictionary;
+import quickfix.FileUtil;
+import quickfix.SessionID;
+import quickfix.fix44.TradeCaptureReport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * FIX消息日志离线回放服务
+ * 将QuickFIX/J FileLog写出的消息日志（FileLogPath下的*.messages.log）内存映射后按消息边界切分，
+ * 使用fork/join并行解析其中的TradeCaptureReport，叶子任务直接提取为紧凑的成交行，再按文件顺序批量加载到本地成交查询引擎，
+ * 用于故障恢复或为新的分析消费者重建成交历史，而无需向broker重新请求全部历史。
+ * QuickFIX/J的FileLog本身不轮转，会话重置时会清空日志；由外部工具（如logrotate）轮转出的未压缩旧文件按修改时间先于当前日志回放，
+ * 压缩过的文件不回放
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TradeLogReplayService {
+
+    /**
+     * 单个叶子任务处理的最大字节数，超过时在消息边界处二分
+     */
+    private static final long LEAF_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * 查找消息边界时每次读取的字节数
+     */
+    private static final int BOUNDARY_SCAN_SIZE = 64 * 1024;
+
+    private static final byte[] BEGIN_STRING_PREFIX = "8=FIX".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRADE_CAPTURE_REPORT_TYPE = "\u000135=AE\u0001".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] COMPRESSED_SUFFIXES = {".gz", ".zip", ".bz2", ".xz", ".zst"};
+
+    private final FixSessionConfig fixSessionConfig;
+    private final TradeQueryEngine tradeQueryEngine;
+
+    /**
+     * 回放broker当前session的消息日志及其轮转出的旧文件
+     * @param brokerId broker标识
+     * @return 加载的成交数
+     */
+    public int replay(String brokerId) throws IOException, ConfigError {
+        SessionID sessionID = fixSessionConfig.getSessionId(brokerId);
+        String fileLogPath = fixSessionConfig.getFileLogPath(brokerId);
+        if (sessionID == null || fileLogPath == null) {
+            throw new IllegalArgumentException("No FileLogPath configured for broker: " + brokerId);
+        }
+        Path logFile = Paths.get(FileUtil.fileAppendPath(fileLogPath, FileUtil.sessionIdFileName(sessionID) + ".messages.log"));
+        List<Path> logFiles = logFilesOldestFirst(logFile);
+        if (logFiles.isEmpty()) {
+            throw new IllegalArgumentException("Message log not found for broker " + brokerId + ": " + logFile);
+        }
+        DataDictionary dataDictionary = fixSessionConfig.getSessionDataDictionary(brokerId);
+        // 同一次回放的所有文件共用一个fork/join池
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            int loaded = 0;
+            for (Path file : logFiles) {
+                loaded += replay(brokerId, file, dataDictionary, pool);
+            }
+            return loaded;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 回放所有broker的消息日志，单个broker失败时记录错误并继续
+     * @return 加载的成交数
+     */
+    public int replayAll() {
+        int loaded = 0;
+        for (String brokerId : fixSessionConfig.getBrokerIds()) {
+            try {
+                loaded += replay(brokerId);
+            } catch (Exception e) {
+                log.error("Error replaying message log for broker: {}", brokerId, e);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 回放指定的消息日志文件
+     * @param brokerId 成交归属的broker标识
+     * @param logFile QuickFIX/J消息日志文件
+     * @return 加载的成交数
+     */
+    public int replay(String brokerId, Path logFile) throws IOException, ConfigError {
+        DataDictionary dataDictionary = fixSessionConfig.getSessionDataDictionary(brokerId);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return replay(brokerId, logFile, dataDictionary, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int replay(String brokerId, Path logFile, DataDictionary dataDictionary, ForkJoinPool pool)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        List<TradeQueryEngine.TradeRow> rows;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            rows = pool.invoke(new ParseTask(channel, 0, channel.size(), dataDictionary,
+                    CharsetSupport.getCharsetInstance()));
+        }
+
+        // 子任务结果按文件顺序合并，修正、撤销报告仍在原报告之后加载
+        int loaded = tradeQueryEngine.addRows(brokerId, rows);
+        log.info("Replayed {} TradeCaptureReport(s) for broker {} from {} in {} ms",
+                loaded, brokerId, logFile, (System.nanoTime() - startNanos) / 1_000_000);
+        return loaded;
+    }
+
+    /**
+     * 当前消息日志和同目录下以"<日志文件名>."开头的轮转文件，按修改时间从旧到新排列，当前日志总在最后
+     */
+    private static List<Path> logFilesOldestFirst(Path logFile) throws IOException {
+        List<Path> logFiles = new ArrayList<>();
+        Path directory = logFile.toAbsolutePath().getParent();
+        String rotatedPrefix = logFile.getFileName() + ".";
+        if (directory != null && Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                logFiles.addAll(files
+                        .filter(file -> file.getFileName().toString().startsWith(rotatedPrefix))
+                        .filter(Files::isRegularFile)
+                        .filter(file -> {
+                            if (isCompressed(file)) {
+                                log.warn("Skipping compressed rotated message log: {}", file);
+                                return false;
+                            }
+                            return true;
+                        })
+                        .sorted(Comparator.comparing(TradeLogReplayService::lastModifiedTime))
+                        .collect(Collectors.toList()));
+            }
+        }
+        if (Files.isRegularFile(logFile)) {
+            logFiles.add(logFile);
+        }
+        return logFiles;
+    }
+
+    private static boolean isCompressed(Path file) {
+        String name = file.getFileName().toString();
+        for (String suffix : COMPRESSED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FileTime lastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * 解析文件区间[start, end)内的TradeCaptureReport并提取为成交行，区间起点总是位于行首
+     */
+    private static class ParseTask extends RecursiveTask<List<TradeQueryEngine.TradeRow>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final DataDictionary dataDictionary;
+        private final Charset charset;
+
+        private ParseTask(FileChannel channel, long start, long end, DataDictionary dataDictionary, Charset charset) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.dataDictionary = dataDictionary;
+            this.charset = charset;
+        }
+
+        @Override
+        protected List<TradeQueryEngine.TradeRow> compute() {
+            try {
+                if (end - start > LEAF_SIZE) {
+                    long split = nextLineStart(start + (end - start) / 2);
+                    if (split < end) {
+                        ParseTask right = new ParseTask(channel, split, end, dataDictionary, charset);
+                        right.fork();
+                        List<TradeQueryEngine.TradeRow> rows =
+                                new ParseTask(channel, start, split, dataDictionary, charset).compute();
+                        rows.addAll(right.join());
+                        return rows;
+                    }
+                }
+                return parse();
+            } catch (IOException e) {
+                throw new IllegalStateException("Error reading message log at offset " + start, e);
+            }
+        }
+
+        /**
+         * 从position开始查找下一行的起点，找不到时返回end
+         */
+        private long nextLineStart(long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+            while (position < end) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+                position += read;
+            }
+            return end;
+        }
+
+        private List<TradeQueryEngine.TradeRow> parse() throws IOException {
+            List<TradeQueryEngine.TradeRow> rows = new ArrayList<>();
+            // 报告只用于提取字段，整个叶子任务复用同一个对象
+            TradeCaptureReport report = new TradeCaptureReport();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int messageEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                // 开启时间戳时每行以"yyyyMMdd-HH:mm:ss.SSS: "开头，消息从8=FIX开始
+                int messageStart = indexOf(buffer, BEGIN_STRING_PREFIX, lineStart, messageEnd);
+                if (messageStart >= 0 && indexOf(buffer, TRADE_CAPTURE_REPORT_TYPE, messageStart, messageEnd) >= 0) {
+                    byte[] bytes = new byte[messageEnd - messageStart];
+                    buffer.position(messageStart);
+                    buffer.get(bytes);
+                    String raw = new String(bytes, charset);
+                    try {
+                        report.clear();
+                        report.fromString(raw, dataDictionary, false);
+                        rows.add(TradeQueryEngine.TradeRow.of(report));
+                    } catch (Exception e) {
+                        log.warn("Skipping unparseable TradeCaptureReport at offset {}: {}",
+                                start + messageStart, e.getMessage());
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            return rows;
+        }
+
+        private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int to) {
+            int last = to - pattern.length;
+            outer:
+            for (int i = from; i <= last; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (buffer.get(i + j) != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.config.FixSessionConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import quickfix.Session;
+import quickfix.SessionID;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当日成交后台预取服务
+ * 为启用了prefetch的broker周期性发送当日成交快照请求，保持本地成交缓存持续刷新；
+ * 启动时调度已配置的broker，运行期间新增的broker由BrokerController调用schedule加入
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TradePrefetchService {
+
+    /**
+     * 快照刷新超时时间（毫秒），超时未完成的刷新会被新的刷新替代
+     */
+    private static final long REFRESH_TIMEOUT_MILLIS = 30_000;
+
+    private final FixSessionConfig fixSessionConfig;
+    private final FixMessageService fixMessageService;
+    private final LocalTradeStore localTradeStore;
+
+    /**
+     * 已调度预取的broker
+     */
+    private final Set<String> scheduledBrokers = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void startPrefetch() {
+        for (String brokerId : fixSessionConfig.getBrokerIds()) {
+            schedule(brokerId);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stopPrefetch() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 为启用了prefetch的broker调度周期性预取，已调度或未启用时不做处理
+     * @param brokerId broker标识
+     */
+    public synchronized void schedule(String brokerId) {
+        BrokerConfig.BrokerSessionConfig brokerSessionConfig = fixSessionConfig.getBrokerSessionConfig(brokerId);
+        if (brokerSessionConfig == null || !brokerSessionConfig.isPrefetchEnabled() || !scheduledBrokers.add(brokerId)) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "trade-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // 预取间隔不小于broker速率限制允许的最小请求间隔
+        long minIntervalMillis = (long) Math.ceil(1000 / brokerSessionConfig.getMaxRequestsPerSecond());
+        long intervalMillis = Math.max(brokerSessionConfig.getPrefetchIntervalSeconds() * 1000L, minIntervalMillis);
+        scheduler.scheduleWithFixedDelay(() -> prefetch(brokerId), 0, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Scheduled trade prefetch for broker {} every {} ms", brokerId, intervalMillis);
+    }
+
+    private void prefetch(String brokerId) {
+        try {
+            SessionID sessionID = fixSessionConfig.getSessionId(brokerId);
+            Session session = sessionID != null ? Session.lookupSession(sessionID) : null;
+            if (session == null || !session.isLoggedOn()) {
+                log.debug("Session for broker {} is not logged on, skipping trade prefetch", brokerId);
+                return;
+            }
+            if (localTradeStore.isRefreshing(brokerId, REFRESH_TIMEOUT_MILLIS)) {
+                log.debug("Trade snapshot for broker {} still in progress, skipping trade prefetch", brokerId);
+                return;
+            }
+            fixMessageService.requestTradeSnapshot(brokerId, LocalDate.now());
+        } catch (Exception e) {
+            log.error("Error prefetching trades for broker: {}", brokerId, e);
+        }
+    }
+}
@@ -0,0 +1,942 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.util.FixMessageConverter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import quickfix.FieldNotFound;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.field.TradeReportTransType;
+import quickfix.fix44.TradeCaptureReport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 本地成交查询引擎
+ * 以列式原始数组保存网关收到的成交，并在symbol、side、broker上建立倒排索引，
+ * 在TransactTime上维护有序索引，支持不经broker的过滤与分页查询。
+ * 与最新行内容相同的重复投递（如周期性快照）不再写入；撤销报告（TradeReportTransType为撤销、冲正）
+ * 作为墓碑删除该成交，不再出现在查询和扫描中；被替换的行累积到一定比例时压缩，
+ * 超过保留天数的交易日定期淘汰；入站消息总线跳过消息时从FIX消息日志回放补齐
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TradeQueryEngine implements InboundMessageHandler {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    /**
+     * 被替换的行数达到该值且不少于总行数一半时压缩
+     */
+    private static final int COMPACTION_MIN_ROWS = 4096;
+
+    /**
+     * 保留的压缩行号映射数，进行中的分批扫描最多可跨越这么多次压缩
+     */
+    private static final int MAX_COMPACTION_REMAPS = 4;
+
+    private final BrokerConfig brokerConfig;
+
+    /**
+     * 回放服务依赖本引擎，延迟获取以避免循环依赖
+     */
+    private final ObjectProvider<TradeLogReplayService> tradeLogReplayService;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 执行淘汰和回放补齐的后台线程
+     */
+    private ScheduledExecutorService maintenanceScheduler;
+
+    /**
+     * 已安排但尚未开始的回放补齐，期间再跳过的消息由同一次回放覆盖
+     */
+    private final AtomicBoolean replayPending = new AtomicBoolean();
+
+    // 列存储，下标为行号
+    private int size;
+    private int[] brokerCodes = new int[INITIAL_CAPACITY];
+    private int[] symbolCodes = new int[INITIAL_CAPACITY];
+    private char[] sides = new char[INITIAL_CAPACITY];
+    private double[] lastQtys = new double[INITIAL_CAPACITY];
+    private double[] lastPxs = new double[INITIAL_CAPACITY];
+    private long[] transactTimes = new long[INITIAL_CAPACITY];
+    private String[] tradeReportIDs = new String[INITIAL_CAPACITY];
+    private String[] execIDs = new String[INITIAL_CAPACITY];
+    private String[] tradeDates = new String[INITIAL_CAPACITY];
+
+    /**
+     * 成交所属交易日（epoch day），用于按保留天数淘汰
+     */
+    private int[] tradeDays = new int[INITIAL_CAPACITY];
+
+    /**
+     * 被后续报告替换（如修正、撤销）的行
+     */
+    private BitSet replacedRows = new BitSet();
+    private int replacedCount;
+
+    /**
+     * 压缩次数，以及最近几次压缩的行号映射（keptBefore[旧行号] = 旧行号之前保留的行数），用于转换扫描游标
+     */
+    private int generation;
+    private final Deque<int[]> compactionRemaps = new ArrayDeque<>();
+
+    // 字典编码
+    private final Dictionary brokerDictionary = new Dictionary();
+    private final Dictionary symbolDictionary = new Dictionary();
+
+    // 二级索引
+    private final List<IntList> rowsByBroker = new ArrayList<>();
+    private final List<IntList> rowsBySymbol = new ArrayList<>();
+    private final Map<Character, IntList> rowsBySide = new HashMap<>();
+
+    /**
+     * 按TransactTime升序排列的行号，缺少TransactTime的行不在其中
+     */
+    private IntList rowsByTime = new IntList();
+    private boolean timeIndexSorted = true;
+
+    /**
+     * brokerId + TradeReportID到最新行号的映射，用于识别同一成交的后续报告
+     */
+    private Map<String, Integer> latestRowByKey = new HashMap<>();
+
+    @PostConstruct
+    public void startMaintenance() {
+        maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "trade-query-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceScheduler.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void stopMaintenance() {
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 跳过的报告不会再次投递，在后台线程上回放各broker的FIX消息日志补齐；
+     * 与已有行内容相同的报告不会重复写入
+     */
+    @Override
+    public void onMessagesSkipped(long count) {
+        if (maintenanceScheduler == null || !replayPending.compareAndSet(false, true)) {
+            return;
+        }
+        log.warn("{} inbound message(s) skipped, replaying message logs to restore trades", count);
+        maintenanceScheduler.execute(() -> {
+            replayPending.set(false);
+            tradeLogReplayService.getObject().replayAll();
+        });
+    }
+
+    @Override
+    public void onMessage(String brokerId, SessionID sessionId, Message message) {
+        if (brokerId != null && message instanceof TradeCaptureReport) {
+            add(brokerId, (TradeCaptureReport) message);
+        }
+    }
+
+    /**
+     * 添加收到的TradeCaptureReport
+     * @param brokerId broker标识
+     * @param report 收到的报告
+     */
+    public void add(String brokerId, TradeCaptureReport report) {
+        TradeRow row;
+        try {
+            row = TradeRow.of(report);
+        } catch (Exception e) {
+            log.error("Error indexing TradeCaptureReport for broker: {}", brokerId, e);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            insert(brokerId, row);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 批量添加已提取的成交行（如消息日志回放），整批只获取一次写锁
+     * @param brokerId broker标识
+     * @param rows 按到达顺序排列的成交行
+     * @return 实际添加的行数（不含与已有成交内容相同的重复投递）
+     */
+    int addRows(String brokerId, List<TradeRow> rows) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + rows.size());
+            int added = 0;
+            for (TradeRow row : rows) {
+                if (insert(brokerId, row)) {
+                    added++;
+                }
+                compactIfNeeded();
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 是否写入了新行，内容与该成交最新行相同或为撤销报告时返回false
+     */
+    private boolean insert(String brokerId, TradeRow trade) {
+        String key = trade.tradeReportID != null ? brokerId + '|' + trade.tradeReportID : null;
+        if (trade.cancelled) {
+            // 撤销不写入新行，只把该成交的最新行标记为已替换并移出键映射
+            Integer cancelled = key != null ? latestRowByKey.remove(key) : null;
+            if (cancelled != null) {
+                replacedRows.set(cancelled);
+                replacedCount++;
+            }
+            return false;
+        }
+        Integer previous = key != null ? latestRowByKey.get(key) : null;
+        if (previous != null && sameTrade(previous, trade)) {
+            return false;
+        }
+
+        ensureCapacity(size + 1);
+        int row = size++;
+        int brokerCode = brokerDictionary.encode(brokerId);
+        int symbolCode = symbolDictionary.encode(trade.symbol);
+
+        brokerCodes[row] = brokerCode;
+        symbolCodes[row] = symbolCode;
+        sides[row] = trade.side;
+        lastQtys[row] = trade.lastQty;
+        lastPxs[row] = trade.lastPx;
+        transactTimes[row] = trade.transactTime;
+        tradeReportIDs[row] = trade.tradeReportID;
+        execIDs[row] = trade.execID;
+        tradeDates[row] = trade.tradeDate;
+        tradeDays[row] = trade.tradeDay;
+
+        postingList(rowsByBroker, brokerCode).add(row);
+        postingList(rowsBySymbol, symbolCode).add(row);
+        rowsBySide.computeIfAbsent(trade.side, s -> new IntList()).add(row);
+        if (trade.transactTime != NO_TIME) {
+            if (rowsByTime.size > 0 && transactTimes[rowsByTime.get(rowsByTime.size - 1)] > trade.transactTime) {
+                timeIndexSorted = false;
+            }
+            rowsByTime.add(row);
+        }
+
+        if (key != null) {
+            latestRowByKey.put(key, row);
+            if (previous != null) {
+                replacedRows.set(previous);
+                replacedCount++;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameTrade(int row, TradeRow trade) {
+        return Objects.equals(symbolDictionary.decode(symbolCodes[row]), trade.symbol)
+                && sides[row] == trade.side
+                && Double.compare(lastQtys[row], trade.lastQty) == 0
+                && Double.compare(lastPxs[row], trade.lastPx) == 0
+                && transactTimes[row] == trade.transactTime
+                && Objects.equals(execIDs[row], trade.execID)
+                && Objects.equals(tradeDates[row], trade.tradeDate);
+    }
+
+    /**
+     * 淘汰超过保留天数的交易日
+     */
+    public void evictExpired() {
+        lock.writeLock().lock();
+        try {
+            int minDay = minRetainedDay();
+            int expired = 0;
+            for (int row = 0; row < size; row++) {
+                if (tradeDays[row] < minDay) {
+                    expired++;
+                }
+            }
+            if (expired > 0) {
+                log.info("Evicting {} trade row(s) with trade date before {}", expired, LocalDate.ofEpochDay(minDay));
+                compact(minDay);
+            }
+        } catch (Exception e) {
+            log.error("Error evicting expired trades", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int minRetainedDay() {
+        int retentionDays = Math.max(1, brokerConfig.getQueryEngine().getRetentionDays());
+        return (int) LocalDate.now(ZoneOffset.UTC).toEpochDay() - retentionDays + 1;
+    }
+
+    private void compactIfNeeded() {
+        if (replacedCount >= COMPACTION_MIN_ROWS && replacedCount * 2L >= size) {
+            compact(minRetainedDay());
+        }
+    }
+
+    /**
+     * 删除被替换的行和交易日早于minDay的行，保持原有行序重建列与全部索引
+     */
+    private void compact(int minDay) {
+        int oldSize = size;
+        int[] keptBefore = new int[oldSize + 1];
+        int kept = 0;
+        for (int row = 0; row < oldSize; row++) {
+            keptBefore[row] = kept;
+            if (replacedRows.get(row) || tradeDays[row] < minDay) {
+                continue;
+            }
+            if (kept != row) {
+                brokerCodes[kept] = brokerCodes[row];
+                symbolCodes[kept] = symbolCodes[row];
+                sides[kept] = sides[row];
+                lastQtys[kept] = lastQtys[row];
+                lastPxs[kept] = lastPxs[row];
+                transactTimes[kept] = transactTimes[row];
+                tradeReportIDs[kept] = tradeReportIDs[row];
+                execIDs[kept] = execIDs[row];
+                tradeDates[kept] = tradeDates[row];
+                tradeDays[kept] = tradeDays[row];
+            }
+            kept++;
+        }
+        keptBefore[oldSize] = kept;
+        Arrays.fill(tradeReportIDs, kept, oldSize, null);
+        Arrays.fill(execIDs, kept, oldSize, null);
+        Arrays.fill(tradeDates, kept, oldSize, null);
+        size = kept;
+
+        replacedRows = new BitSet();
+        replacedCount = 0;
+        rowsByBroker.clear();
+        rowsBySymbol.clear();
+        rowsBySide.clear();
+        latestRowByKey = new HashMap<>();
+        IntList timeIndex = new IntList(size);
+        for (int row = 0; row < size; row++) {
+            postingList(rowsByBroker, brokerCodes[row]).add(row);
+            postingList(rowsBySymbol, symbolCodes[row]).add(row);
+            rowsBySide.computeIfAbsent(sides[row], s -> new IntList()).add(row);
+            if (transactTimes[row] != NO_TIME) {
+                timeIndex.add(row);
+            }
+            if (tradeReportIDs[row] != null) {
+                latestRowByKey.put(brokerDictionary.decode(brokerCodes[row]) + '|' + tradeReportIDs[row], row);
+            }
+        }
+        sortByTime(timeIndex);
+        rowsByTime = timeIndex;
+        timeIndexSorted = true;
+
+        generation++;
+        compactionRemaps.addLast(keptBefore);
+        while (compactionRemaps.size() > MAX_COMPACTION_REMAPS) {
+            compactionRemaps.removeFirst();
+        }
+        log.info("Compacted trade query engine: {} -> {} row(s)", oldSize, size);
+    }
+
+    /**
+     * 将游标中的行号转换到当前的行号空间，压缩保持行的相对顺序
+     */
+    private int translateRow(int cursorGeneration, int row) {
+        int oldest = generation - compactionRemaps.size();
+        if (cursorGeneration < oldest) {
+            throw new IllegalStateException("Scan cursor expired after " + (generation - cursorGeneration) + " compactions");
+        }
+        int g = oldest;
+        for (int[] keptBefore : compactionRemaps) {
+            if (g++ >= cursorGeneration) {
+                // 旧行号不大于row的保留行在新行号空间中都小于keptBefore[row + 1]
+                row = keptBefore[row + 1] - 1;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * 按条件查询成交，结果按TransactTime升序排列
+     * @param brokerId broker标识（可选）
+     * @param symbol 证券代码（可选）
+     * @param side 买卖方向（可选，FIX Side取值）
+     * @param fromTime TransactTime下限，包含（可选）
+     * @param toTime TransactTime上限，不包含（可选）
+     * @param offset 分页起始位置
+     * @param limit 分页大小
+     * @return 查询结果
+     */
+    public QueryResult query(String brokerId, String symbol, Character side,
+                             Instant fromTime, Instant toTime, int offset, int limit) {
+        long from = fromTime != null ? fromTime.toEpochMilli() : Long.MIN_VALUE;
+        long to = toTime != null ? toTime.toEpochMilli() : Long.MAX_VALUE;
+        boolean timeFiltered = fromTime != null || toTime != null;
+
+        lock.readLock().lock();
+        try {
+            int brokerCode = brokerId != null ? brokerDictionary.lookup(brokerId) : -1;
+            int symbolCode = symbol != null ? symbolDictionary.lookup(symbol) : -1;
+            if ((brokerId != null && brokerCode < 0) || (symbol != null && symbolCode < 0)) {
+                return new QueryResult(0, new ArrayList<>());
+            }
+
+            // 选择最小的倒排列表作为候选集
+            IntList candidates = null;
+            if (brokerId != null) {
+                candidates = smaller(candidates, rowsByBroker.get(brokerCode));
+            }
+            if (symbol != null) {
+                candidates = smaller(candidates, rowsBySymbol.get(symbolCode));
+            }
+            if (side != null) {
+                candidates = smaller(candidates, rowsBySide.getOrDefault(side, new IntList()));
+            }
+
+            IntList matches = new IntList();
+            if (candidates == null) {
+                // 只有时间条件（或无条件），直接扫描时间索引
+                IntList timeIndex = sortedTimeIndex();
+                int start = timeFiltered ? lowerBound(timeIndex, from) : 0;
+                int end = timeFiltered ? lowerBound(timeIndex, to) : timeIndex.size;
+                for (int i = start; i < end; i++) {
+                    int row = timeIndex.get(i);
+                    if (!replacedRows.get(row)) {
+                        matches.add(row);
+                    }
+                }
+                if (!timeFiltered) {
+                    // 无时间条件时也包含缺少TransactTime的行
+                    for (int row = 0; row < size; row++) {
+                        if (transactTimes[row] == NO_TIME && !replacedRows.get(row)) {
+                            matches.add(row);
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < candidates.size; i++) {
+                    int row = candidates.get(i);
+                    if (replacedRows.get(row)
+                            || (brokerId != null && brokerCodes[row] != brokerCode)
+                            || (symbol != null && symbolCodes[row] != symbolCode)
+                            || (side != null && sides[row] != side)
+                            || (timeFiltered && (transactTimes[row] == NO_TIME
+                                || transactTimes[row] < from || transactTimes[row] >= to))) {
+                        continue;
+                    }
+                    matches.add(row);
+                }
+                sortByTime(matches);
+            }
+
+            List<Map<String, Object>> trades = new ArrayList<>();
+            int end = (int) Math.min((long) offset + limit, matches.size);
+            for (int i = offset; i < end; i++) {
+                trades.add(toMap(matches.get(i)));
+            }
+            return new QueryResult(matches.size, trades);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按TransactTime顺序分批扫描某个broker在时间范围内的成交
+     * 每批只在读锁内复制最多batchSize行，批次之间以(TransactTime, 行号)作为游标，
+     * 因此导出大量数据时不会长时间持有锁，内存占用也只与批大小有关
+     * @param brokerId broker标识
+     * @param fromTime TransactTime下限，包含
+     * @param toTime TransactTime上限，不包含
+     * @param cursor 扫描游标，首批传入new ScanCursor()，之后由本方法推进
+     * @param batch 用于接收数据的批次，会被清空后重新填充
+     * @return 本批的行数，0表示扫描结束
+     */
+    public int scan(String brokerId, Instant fromTime, Instant toTime, ScanCursor cursor, TradeBatch batch) {
+        batch.size = 0;
+        long to = toTime.toEpochMilli();
+
+        lock.readLock().lock();
+        try {
+            int brokerCode = brokerDictionary.lookup(brokerId);
+            if (brokerCode < 0) {
+                return 0;
+            }
+            IntList timeIndex = sortedTimeIndex();
+            if (cursor.started && cursor.generation != generation) {
+                cursor.lastRow = translateRow(cursor.generation, cursor.lastRow);
+            }
+            cursor.generation = generation;
+            int position = cursor.started
+                    ? upperBound(timeIndex, cursor.lastTime, cursor.lastRow)
+                    : lowerBound(timeIndex, fromTime.toEpochMilli());
+
+            for (; position < timeIndex.size && batch.size < batch.capacity; position++) {
+                int row = timeIndex.get(position);
+                if (transactTimes[row] >= to) {
+                    break;
+                }
+                cursor.started = true;
+                cursor.lastTime = transactTimes[row];
+                cursor.lastRow = row;
+                if (brokerCodes[row] != brokerCode || replacedRows.get(row)) {
+                    continue;
+                }
+                int i = batch.size++;
+                batch.tradeReportIDs[i] = tradeReportIDs[row];
+                batch.execIDs[i] = execIDs[row];
+                batch.symbols[i] = symbolDictionary.decode(symbolCodes[row]);
+                batch.sides[i] = sides[row];
+                batch.lastQtys[i] = lastQtys[row];
+                batch.lastPxs[i] = lastPxs[row];
+                batch.transactTimes[i] = transactTimes[row];
+                batch.tradeDates[i] = tradeDates[row];
+            }
+            return batch.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前保存的行数（包含被替换的行）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<String, Object> toMap(int row) {
+        Map<String, Object> trade = new LinkedHashMap<>();
+        trade.put("brokerId", brokerDictionary.decode(brokerCodes[row]));
+        if (tradeReportIDs[row] != null) {
+            trade.put("tradeReportID", tradeReportIDs[row]);
+        }
+        if (symbolCodes[row] != 0) {
+            trade.put("symbol", symbolDictionary.decode(symbolCodes[row]));
+        }
+        if (sides[row] != 0) {
+            trade.put("side", sides[row]);
+        }
+        if (!Double.isNaN(lastQtys[row])) {
+            trade.put("lastQty", lastQtys[row]);
+        }
+        if (!Double.isNaN(lastPxs[row])) {
+            trade.put("lastPx", lastPxs[row]);
+        }
+        if (tradeDates[row] != null) {
+            trade.put("tradeDate", tradeDates[row]);
+        }
+        if (transactTimes[row] != NO_TIME) {
+            trade.put("transactTime", LocalDateTime.ofInstant(Instant.ofEpochMilli(transactTimes[row]), ZoneOffset.UTC));
+        }
+        if (execIDs[row] != null) {
+            trade.put("execID", execIDs[row]);
+        }
+        return trade;
+    }
+
+    /**
+     * 返回已排序的时间索引，必要时升级读锁重新排序
+     */
+    private IntList sortedTimeIndex() {
+        if (timeIndexSorted) {
+            return rowsByTime;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (!timeIndexSorted) {
+                IntList sorted = new IntList(rowsByTime.size);
+                for (int i = 0; i < rowsByTime.size; i++) {
+                    sorted.add(rowsByTime.get(i));
+                }
+                sortByTime(sorted);
+                rowsByTime = sorted;
+                timeIndexSorted = true;
+            }
+            return rowsByTime;
+        } finally {
+            // 降级回读锁
+            lock.readLock().lock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在时间索引中查找第一个TransactTime不小于time的位置
+     */
+    private int lowerBound(IntList timeIndex, long time) {
+        int low = 0;
+        int high = timeIndex.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (transactTimes[timeIndex.get(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 在时间索引中查找第一个(TransactTime, 行号)大于(time, row)的位置
+     */
+    private int upperBound(IntList timeIndex, long time, int row) {
+        int low = 0;
+        int high = timeIndex.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int midRow = timeIndex.get(mid);
+            long midTime = transactTimes[midRow];
+            if (midTime < time || (midTime == time && midRow <= row)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 按TransactTime升序（相同时间按行号，缺少时间的行排在最后）对行号排序
+     * 时间跨度在2^31毫秒（约24天）以内时，将相对时间与行号打包为long后排序以避免装箱
+     */
+    private void sortByTime(IntList rows) {
+        if (rows.size < 2) {
+            return;
+        }
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < rows.size; i++) {
+            long time = transactTimes[rows.get(i)];
+            if (time != NO_TIME) {
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+            }
+        }
+
+        if (minTime == Long.MAX_VALUE || maxTime - minTime < Integer.MAX_VALUE) {
+            long[] keys = new long[rows.size];
+            for (int i = 0; i < rows.size; i++) {
+                int row = rows.get(i);
+                long relative = transactTimes[row] == NO_TIME ? Integer.MAX_VALUE : transactTimes[row] - minTime;
+                keys[i] = (relative << 32) | row;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < keys.length; i++) {
+                rows.set(i, (int) keys[i]);
+            }
+            return;
+        }
+
+        Integer[] boxed = new Integer[rows.size];
+        for (int i = 0; i < rows.size; i++) {
+            boxed[i] = rows.get(i);
+        }
+        Arrays.sort(boxed, (a, b) -> {
+            long ta = transactTimes[a] == NO_TIME ? Long.MAX_VALUE : transactTimes[a];
+            long tb = transactTimes[b] == NO_TIME ? Long.MAX_VALUE : transactTimes[b];
+            return ta != tb ? Long.compare(ta, tb) : Integer.compare(a, b);
+        });
+        for (int i = 0; i < boxed.length; i++) {
+            rows.set(i, boxed[i]);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= brokerCodes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, brokerCodes.length * 2);
+        brokerCodes = Arrays.copyOf(brokerCodes, newCapacity);
+        symbolCodes = Arrays.copyOf(symbolCodes, newCapacity);
+        sides = Arrays.copyOf(sides, newCapacity);
+        lastQtys = Arrays.copyOf(lastQtys, newCapacity);
+        lastPxs = Arrays.copyOf(lastPxs, newCapacity);
+        transactTimes = Arrays.copyOf(transactTimes, newCapacity);
+        tradeReportIDs = Arrays.copyOf(tradeReportIDs, newCapacity);
+        execIDs = Arrays.copyOf(execIDs, newCapacity);
+        tradeDates = Arrays.copyOf(tradeDates, newCapacity);
+        tradeDays = Arrays.copyOf(tradeDays, newCapacity);
+    }
+
+    private static IntList postingList(List<IntList> index, int code) {
+        while (index.size() <= code) {
+            index.add(new IntList());
+        }
+        return index.get(code);
+    }
+
+    private static IntList smaller(IntList current, IntList candidate) {
+        return current == null || candidate.size < current.size ? candidate : current;
+    }
+
+    /**
+     * 从报告中提取的一行成交字段
+     */
+    static final class TradeRow {
+        private String tradeReportID;
+        private String symbol;
+        private char side;
+        private double lastQty;
+        private double lastPx;
+        private long transactTime;
+        private String execID;
+        private String tradeDate;
+        private int tradeDay;
+
+        /**
+         * 是否为撤销已报告成交的报告
+         */
+        private boolean cancelled;
+
+        static TradeRow of(TradeCaptureReport report) throws FieldNotFound {
+            TradeRow row = new TradeRow();
+            row.tradeReportID = report.isSetTradeReportID() ? report.getTradeReportID().getValue() : null;
+            row.symbol = report.isSetSymbol() ? report.getSymbol().getValue() : null;
+            row.side = FixMessageConverter.getSide(report);
+            row.lastQty = report.isSetLastQty() ? report.getLastQty().getValue() : Double.NaN;
+            row.lastPx = report.isSetLastPx() ? report.getLastPx().getValue() : Double.NaN;
+            row.transactTime = report.isSetTransactTime()
+                    ? report.getTransactTime().getValue().toInstant(ZoneOffset.UTC).toEpochMilli() : NO_TIME;
+            row.execID = report.isSetExecID() ? report.getExecID().getValue() : null;
+            row.tradeDate = report.isSetTradeDate() ? report.getTradeDate().getValue() : null;
+            row.tradeDay = tradeDay(row.tradeDate, row.transactTime);
+            row.cancelled = report.isSetTradeReportTransType() && isCancel(report.getTradeReportTransType().getValue());
+            return row;
+        }
+
+        private static boolean isCancel(int tradeReportTransType) {
+            return tradeReportTransType == TradeReportTransType.CANCEL
+                    || tradeReportTransType == TradeReportTransType.REVERSE
+                    || tradeReportTransType == TradeReportTransType.CANCEL_DUE_TO_BACK_OUT_OF_TRADE;
+        }
+
+        /**
+         * 交易日优先取TradeDate，其次取TransactTime的UTC日期，都缺少时取收到当天
+         */
+        private static int tradeDay(String tradeDate, long transactTime) {
+            if (tradeDate != null) {
+                try {
+                    return (int) LocalDate.parse(tradeDate, DateTimeFormatter.BASIC_ISO_DATE).toEpochDay();
+                } catch (DateTimeParseException e) {
+                    log.debug("Unparseable TradeDate: {}", tradeDate);
+                }
+            }
+            if (transactTime != NO_TIME) {
+                return (int) Math.floorDiv(transactTime, MILLIS_PER_DAY);
+            }
+            return (int) LocalDate.now(ZoneOffset.UTC).toEpochDay();
+        }
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class QueryResult {
+        private final int total;
+        private final List<Map<String, Object>> trades;
+
+        QueryResult(int total, List<Map<String, Object>> trades) {
+            this.total = total;
+            this.trades = trades;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Map<String, Object>> getTrades() {
+            return trades;
+        }
+    }
+
+    /**
+     * 分批扫描的游标
+     */
+    public static class ScanCursor {
+        private boolean started;
+        private long lastTime;
+        private int lastRow;
+        private int generation;
+    }
+
+    /**
+     * 列式成交批次，批次对象可在多次扫描间复用
+     */
+    public static class TradeBatch {
+        private final int capacity;
+        private int size;
+        private final String[] tradeReportIDs;
+        private final String[] execIDs;
+        private final String[] symbols;
+        private final char[] sides;
+        private final double[] lastQtys;
+        private final double[] lastPxs;
+        private final long[] transactTimes;
+        private final String[] tradeDates;
+
+        public TradeBatch(int capacity) {
+            this.capacity = capacity;
+            this.tradeReportIDs = new String[capacity];
+            this.execIDs = new String[capacity];
+            this.symbols = new String[capacity];
+            this.sides = new char[capacity];
+            this.lastQtys = new double[capacity];
+            this.lastPxs = new double[capacity];
+            this.transactTimes = new long[capacity];
+            this.tradeDates = new String[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getTradeReportID(int i) {
+            return tradeReportIDs[i];
+        }
+
+        public String getExecID(int i) {
+            return execIDs[i];
+        }
+
+        public String getSymbol(int i) {
+            return symbols[i];
+        }
+
+        /**
+         * @return FIX Side取值，未设置时返回0
+         */
+        public char getSide(int i) {
+            return sides[i];
+        }
+
+        /**
+         * @return 成交数量，未设置时返回NaN
+         */
+        public double getLastQty(int i) {
+            return lastQtys[i];
+        }
+
+        /**
+         * @return 成交价格，未设置时返回NaN
+         */
+        public double getLastPx(int i) {
+            return lastPxs[i];
+        }
+
+        /**
+         * @return TransactTime（UTC毫秒）
+         */
+        public long getTransactTime(int i) {
+            return transactTimes[i];
+        }
+
+        public String getTradeDate(int i) {
+            return tradeDates[i];
+        }
+    }
+
+    /**
+     * 字符串字典编码，编码0保留给null
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>(List.of(""));
+
+        int encode(String value) {
+            if (value == null) {
+                return 0;
+            }
+            return codes.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        int lookup(String value) {
+            return codes.getOrDefault(value, -1);
+        }
+
+        String decode(int code) {
+            return code == 0 ? null : values.get(code);
+        }
+    }
+
+    /**
+     * 可增长的int数组，避免List<Integer>的装箱开销
+     */
+    private static class IntList {
+        private int[] values;
+        private int size;
+
+        IntList() {
+            this(16);
+        }
+
+        IntList(int capacity) {
+            values = new int[Math.max(capacity, 1)];
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+        }
+    }
+}
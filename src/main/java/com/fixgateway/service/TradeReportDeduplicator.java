@@ -0,0 +1,118 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import quickfix.FieldNotFound;
+import quickfix.fix44.TradeCaptureReport;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 入站成交报告去重
+ * 重连、重发时broker会重放TradeCaptureReport（PossDupFlag/PossResend），去重键为
+ * TradeReportID + TradeReportTransType + ExecID + TradeRequestID（同一成交被不同请求再次查询时不视为重复）。
+ * 每个broker保留最近报告键的有界精确窗口（按插入顺序淘汰最旧的键），只有窗口内已有的报告被丢弃，
+ * 每个broker占用的内存由窗口大小决定，不随报告数增长。
+ * 比精确窗口更早的重复报告不再能识别，会照常投递，由下游按TradeReportID幂等处理（如本地存储、查询引擎替换同一成交）
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TradeReportDeduplicator {
+
+    private static final char KEY_SEPARATOR = '\u0001';
+
+    private final BrokerConfig brokerConfig;
+
+    /**
+     * 每个broker的去重状态，key为brokerId
+     */
+    private final Map<String, BrokerWindow> brokerWindows = new ConcurrentHashMap<>();
+
+    /**
+     * 判断报告是否重复，不重复时记录该报告
+     * 只有精确窗口内已有的报告视为重复，不在窗口内的报告照常投递，
+     * 即使报告标记了PossDupFlag/PossResend（如序号缺口补发的报告网关可能从未收到过）
+     * @param brokerId broker标识
+     * @param report 入站报告
+     * @return 是否为重复报告
+     */
+    public boolean isDuplicate(String brokerId, TradeCaptureReport report) throws FieldNotFound {
+        BrokerConfig.DedupConfig config = brokerConfig.getDedup();
+        if (!config.isEnabled() || !report.isSetTradeReportID()) {
+            return false;
+        }
+        BrokerWindow window = brokerWindows.computeIfAbsent(brokerId, id -> new BrokerWindow(id, config));
+        return window.checkAndAdd(dedupKey(report), LocalDate.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * 清除broker的去重状态（如启动预热使用的合成session）
+     */
+    public void clear(String brokerId) {
+        brokerWindows.remove(brokerId);
+    }
+
+    private static String dedupKey(TradeCaptureReport report) throws FieldNotFound {
+        StringBuilder key = new StringBuilder(64).append(report.getTradeReportID().getValue()).append(KEY_SEPARATOR);
+        if (report.isSetTradeReportTransType()) {
+            key.append(report.getTradeReportTransType().getValue());
+        }
+        key.append(KEY_SEPARATOR);
+        if (report.isSetExecID()) {
+            key.append(report.getExecID().getValue());
+        }
+        key.append(KEY_SEPARATOR);
+        if (report.isSetTradeRequestID()) {
+            key.append(report.getTradeRequestID().getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * 单个broker的去重状态：最近报告键的精确窗口，以及当日丢弃的重复报告数
+     */
+    private static class BrokerWindow {
+        private final String brokerId;
+        private final Map<String, Boolean> recentKeys;
+        private LocalDate tradeDate;
+        private long dropped;
+
+        private BrokerWindow(String brokerId, BrokerConfig.DedupConfig config) {
+            this.brokerId = brokerId;
+            int windowSize = Math.max(1, config.getExactWindowSize());
+            this.recentKeys = new LinkedHashMap<String, Boolean>(windowSize * 4 / 3 + 1) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > windowSize;
+                }
+            };
+        }
+
+        private synchronized boolean checkAndAdd(String key, LocalDate today) {
+            if (!today.equals(tradeDate)) {
+                if (tradeDate != null) {
+                    log.info("Trade date rolled over for broker {}: {} duplicate TradeCaptureReport(s) dropped on {}",
+                            brokerId, dropped, tradeDate);
+                }
+                tradeDate = today;
+                dropped = 0;
+            }
+
+            if (recentKeys.containsKey(key)) {
+                dropped++;
+                log.debug("Dropped duplicate TradeCaptureReport from broker {}: {}", brokerId, key);
+                return true;
+            }
+
+            recentKeys.put(key, Boolean.TRUE);
+            return false;
+        }
+    }
+}
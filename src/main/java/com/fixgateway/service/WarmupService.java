@@ -0,0 +1,176 @@
+package com.fixgateway.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.config.FixSessionConfig;
+import com.fixgateway.dto.TradeCaptureRequest;
+import com.fixgateway.dto.TradeCaptureResponse;
+import com.fixgateway.util.FixMessageConverter;
+import com.fixgateway.util.TradeCaptureProtobufEncoder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import quickfix.DataDictionary;
+import quickfix.SessionID;
+import quickfix.field.BeginString;
+import quickfix.field.ExecID;
+import quickfix.field.LastPx;
+import quickfix.field.LastQty;
+import quickfix.field.LastRptRequested;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.OrderID;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TargetCompID;
+import quickfix.field.TotNumTradeReports;
+import quickfix.field.TradeDate;
+import quickfix.field.TradeReportID;
+import quickfix.field.TradeRequestID;
+import quickfix.field.TransactTime;
+import quickfix.fix44.TradeCaptureReport;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动预热
+ * 在应用报告就绪之前，用合成的请求体和TradeCaptureReport反复走一遍请求反序列化、入站报告解析、
+ * FixApplication关联、FixMessageConverter转换和响应序列化，使这些路径在开盘流量到达前完成JIT编译。
+ * ApplicationRunner在就绪状态发布之前执行，预热期间就绪探针保持OUT_OF_SERVICE。
+ * 合成报告使用不属于任何broker的SessionID，总线上的消费者会忽略这些报告；
+ * 报告按已配置broker的DataDictionary解析，与实际入站报告走相同的字典
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WarmupService implements ApplicationRunner {
+
+    private static final SessionID WARMUP_SESSION = new SessionID("FIX.4.4", "WARMUP", "GATEWAY");
+    private static final String WARMUP_ID_PREFIX = "WARMUP-";
+    private static final String[] SYMBOLS = {"IBM", "AAPL", "MSFT", "0700.HK", "600000.SS"};
+    private static final DateTimeFormatter TRADE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final BrokerConfig brokerConfig;
+    private final FixSessionConfig fixSessionConfig;
+    private final FixApplication fixApplication;
+    private final TradeReportDeduplicator tradeReportDeduplicator;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        BrokerConfig.WarmupConfig config = brokerConfig.getWarmup();
+        if (!config.isEnabled() || config.getIterations() <= 0) {
+            return;
+        }
+        List<String> brokerIds = fixSessionConfig.getBrokerIds();
+        if (brokerIds.isEmpty()) {
+            log.warn("No broker sessions configured, skipping warm-up");
+            return;
+        }
+        log.info("Warming up with up to {} synthetic trade capture request(s)", config.getIterations());
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getMaxDurationSeconds());
+        long[] latencies = new long[config.getIterations()];
+        int completed = 0;
+        try {
+            DataDictionary dataDictionary = fixSessionConfig.getSessionDataDictionary(brokerIds.get(0));
+            while (completed < latencies.length && System.nanoTime() - deadlineNanos < 0) {
+                long iterationStart = System.nanoTime();
+                runIteration(completed, dataDictionary);
+                latencies[completed] = System.nanoTime() - iterationStart;
+                completed++;
+            }
+        } catch (Exception e) {
+            // 预热失败不影响启动，只是首批请求仍然较慢
+            log.error("Warm-up aborted after {} iteration(s)", completed, e);
+        } finally {
+            tradeReportDeduplicator.clear(WARMUP_SESSION.toString());
+        }
+
+        int window = Math.min(Math.max(1, config.getReportWindow()), completed);
+        if (window == 0) {
+            return;
+        }
+        log.info("Warm-up finished: {} iteration(s) in {} ms; first {}: {}; last {}: {}",
+                completed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                window, percentiles(latencies, 0, window),
+                window, percentiles(latencies, completed - window, completed));
+    }
+
+    /**
+     * 一次合成请求：请求体反序列化 -> 注册待处理请求 -> 报告编码与解析 -> fromApp -> 转换 -> 响应序列化
+     */
+    private void runIteration(int iteration, DataDictionary dataDictionary) throws Exception {
+        String tradeReportID = WARMUP_ID_PREFIX + "T" + iteration;
+        byte[] body = ("{\"brokerId\":\"warmup\",\"tradeReportID\":\"" + tradeReportID + "\",\"tradeRequestType\":\"0\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        TradeCaptureRequest request = objectMapper.readValue(body, TradeCaptureRequest.class);
+
+        String tradeRequestID = WARMUP_ID_PREFIX + iteration;
+        CompletableFuture<TradeCaptureReport> future = fixApplication.registerRequest(tradeRequestID);
+        try {
+            // 与入站消息一样从原始字符串解析，覆盖QuickFIX/J的解码路径
+            TradeCaptureReport report = new TradeCaptureReport();
+            report.fromString(syntheticReport(iteration, tradeRequestID, request.getTradeReportID()).toString(),
+                    dataDictionary, false);
+            fixApplication.fromApp(report, WARMUP_SESSION);
+
+            TradeCaptureReport received = future.getNow(null);
+            if (received == null) {
+                throw new IllegalStateException("Synthetic TradeCaptureReport was not correlated: " + tradeRequestID);
+            }
+            TradeCaptureResponse response = FixMessageConverter.toTradeCaptureResponse(received);
+            response.setSuccess(true);
+            objectMapper.writeValue(OutputStream.nullOutputStream(), response);
+            TradeCaptureProtobufEncoder.write(response, OutputStream.nullOutputStream());
+        } finally {
+            fixApplication.removeRequest(tradeRequestID);
+        }
+    }
+
+    private static TradeCaptureReport syntheticReport(int iteration, String tradeRequestID, String tradeReportID) {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        TradeCaptureReport report = new TradeCaptureReport();
+        report.getHeader().setString(BeginString.FIELD, WARMUP_SESSION.getBeginString());
+        report.getHeader().setString(SenderCompID.FIELD, WARMUP_SESSION.getSenderCompID());
+        report.getHeader().setString(TargetCompID.FIELD, WARMUP_SESSION.getTargetCompID());
+        report.getHeader().setInt(MsgSeqNum.FIELD, iteration + 1);
+        report.getHeader().setUtcTimeStamp(SendingTime.FIELD, now);
+        report.setString(TradeRequestID.FIELD, tradeRequestID);
+        report.setString(TradeReportID.FIELD, tradeReportID);
+        report.setString(ExecID.FIELD, WARMUP_ID_PREFIX + "E" + iteration);
+        report.setString(Symbol.FIELD, SYMBOLS[iteration % SYMBOLS.length]);
+        report.setDouble(LastQty.FIELD, 100 + iteration % 900);
+        report.setDouble(LastPx.FIELD, 10 + (iteration % 1000) / 100.0);
+        report.setString(TradeDate.FIELD, now.format(TRADE_DATE_FORMAT));
+        report.setUtcTimeStamp(TransactTime.FIELD, now);
+        report.setInt(TotNumTradeReports.FIELD, 1);
+        report.setBoolean(LastRptRequested.FIELD, true);
+
+        TradeCaptureReport.NoSides side = new TradeCaptureReport.NoSides();
+        side.setChar(Side.FIELD, iteration % 2 == 0 ? Side.BUY : Side.SELL);
+        side.setString(OrderID.FIELD, WARMUP_ID_PREFIX + "O" + iteration);
+        report.addGroup(side);
+        return report;
+    }
+
+    private static String percentiles(long[] latencies, int from, int to) {
+        long[] window = Arrays.copyOfRange(latencies, from, to);
+        Arrays.sort(window);
+        return String.format("p50=%.3fms p99=%.3fms max=%.3fms",
+                window[(int) ((window.length - 1) * 0.50)] / 1_000_000.0,
+                window[(int) ((window.length - 1) * 0.99)] / 1_000_000.0,
+                window[window.length - 1] / 1_000_000.0);
+    }
+}
@@ -0,0 +1,99 @@
+package com.fixgateway.util;
+
+/**
+ * 自适应并发限制（梯度算法）
+ * 用基线RTT（无排队时的RTT）与最新RTT之比作为梯度：RTT上升说明broker端开始排队，按比例收缩限制；
+ * RTT接近基线时每次采样增加约sqrt(limit)的余量以探测更高的并发。超时或失败时按比例回退
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double BASELINE_DRIFT = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private double baselineRttNanos;
+    private double shortRttNanos;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 尝试占用一个并发名额
+     * @return 是否成功，未超过当前限制时返回true
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * 请求成功完成，释放名额并用本次RTT更新限制
+     * @param rttNanos 请求往返时间（纳秒）
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        int inFlightAtCompletion = inFlight;
+        inFlight--;
+
+        shortRttNanos = rttNanos;
+        // 基线取观测到的最小RTT，并缓慢向当前RTT漂移，使broker整体变慢后基线能够重新建立
+        if (baselineRttNanos == 0 || rttNanos < baselineRttNanos) {
+            baselineRttNanos = rttNanos;
+        } else {
+            baselineRttNanos += (rttNanos - baselineRttNanos) / BASELINE_DRIFT;
+        }
+
+        // 并发远未达到限制时，RTT不能反映限制是否合适，不调整
+        if (inFlightAtCompletion < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, baselineRttNanos / shortRttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    /**
+     * 请求超时或失败，释放名额并回退限制
+     */
+    public synchronized void onDropped() {
+        inFlight--;
+        limit = clamp(limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * 请求未发出即放弃，只释放名额
+     */
+    public synchronized void onIgnored() {
+        inFlight--;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * 估算的往返时间（纳秒），尚无采样时返回0
+     */
+    public synchronized long getEstimatedRttNanos() {
+        return (long) shortRttNanos;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -1,9 +1,13 @@
 package com.fixgateway.util;
 
+import com.fixgateway.dto.TradeCaptureResponse;
 import lombok.extern.slf4j.Slf4j;
+import quickfix.FieldMap;
 import quickfix.FieldNotFound;
+import quickfix.Group;
 import quickfix.Message;
 import quickfix.fix44.TradeCaptureReport;
+import quickfix.fix44.TradeCaptureReportRequestAck;
 import quickfix.field.*;
 
 import java.util.ArrayList;
@@ -36,8 +40,9 @@ public class FixMessageConverter {
                 result.put("symbol", report.getSymbol().getValue());
             }
             
-            if (report.isSetSide()) {
-                result.put("side", report.getSide().getValue());
+            char side = getSide(report);
+            if (side != 0) {
+                result.put("side", side);
             }
             
             if (report.isSetLastQty()) {
@@ -60,8 +65,9 @@ public class FixMessageConverter {
                 result.put("execID", report.getExecID().getValue());
             }
             
-            if (report.isSetOrderID()) {
-                result.put("orderID", report.getOrderID().getValue());
+            String orderID = getOrderID(report);
+            if (orderID != null) {
+                result.put("orderID", orderID);
             }
             
             // 获取所有字段的键值对
@@ -84,7 +90,110 @@ public class FixMessageConverter {
         return result;
     }
     
-    private static void extractFields(Message message, Map<String, String> fields) {
+    /**
+     * 将单个TradeCaptureReport转换为REST响应
+     */
+    public static TradeCaptureResponse toTradeCaptureResponse(TradeCaptureReport report) {
+        Map<String, Object> reportMap = convertTradeCaptureReportToMap(report);
+        
+        TradeCaptureResponse.TradeCaptureResponseBuilder builder = TradeCaptureResponse.builder();
+        
+        if (reportMap.containsKey("tradeRequestID")) {
+            builder.tradeRequestID((String) reportMap.get("tradeRequestID"));
+        }
+        
+        if (reportMap.containsKey("tradeReportID")) {
+            builder.tradeReportID((String) reportMap.get("tradeReportID"));
+        }
+        
+        if (reportMap.containsKey("totalNumTrades")) {
+            builder.totalNumTrades((Integer) reportMap.get("totalNumTrades"));
+        }
+        
+        if (reportMap.containsKey("fixFields")) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> fixFields = (Map<String, String>) reportMap.get("fixFields");
+            builder.fixFields(fixFields);
+        }
+        
+        // 将单个交易信息添加到trades列表
+        List<Map<String, Object>> trades = new ArrayList<>();
+        Map<String, Object> tradeInfo = toTradeInfo(reportMap);
+        tradeInfo.remove("tradeReportID");
+        if (!tradeInfo.isEmpty()) {
+            trades.add(tradeInfo);
+        }
+        builder.trades(trades);
+        
+        return builder.build();
+    }
+
+    /**
+     * 报告中的成交信息，不含原始FIX字段和请求级字段
+     */
+    public static Map<String, Object> toTradeInfo(Map<String, Object> reportMap) {
+        Map<String, Object> tradeInfo = new HashMap<>();
+        reportMap.forEach((key, value) -> {
+            if (!key.equals("fixFields") && !key.equals("tradeRequestID") && !key.equals("totalNumTrades")) {
+                tradeInfo.put(key, value);
+            }
+        });
+        return tradeInfo;
+    }
+
+    /**
+     * 获取成交的买卖方向
+     * FIX 4.4中Side位于NoSides重复组内，取第一个组的Side；若组不存在则取消息体中的Side
+     * @return FIX Side取值，未设置时返回0
+     */
+    public static char getSide(TradeCaptureReport report) {
+        try {
+            if (report.hasGroup(NoSides.FIELD)) {
+                Group side = report.getGroup(1, NoSides.FIELD);
+                if (side.isSetField(Side.FIELD)) {
+                    return side.getChar(Side.FIELD);
+                }
+            }
+            if (report.isSetField(Side.FIELD)) {
+                return report.getChar(Side.FIELD);
+            }
+        } catch (FieldNotFound e) {
+            log.debug("Side not found in TradeCaptureReport", e);
+        }
+        return 0;
+    }
+
+    /**
+     * 获取成交对应的订单号
+     * FIX 4.4中OrderID位于NoSides重复组内，取第一个组的OrderID
+     * @return 未设置时返回null
+     */
+    public static String getOrderID(TradeCaptureReport report) {
+        try {
+            if (report.hasGroup(NoSides.FIELD)) {
+                Group side = report.getGroup(1, NoSides.FIELD);
+                if (side.isSetField(OrderID.FIELD)) {
+                    return side.getString(OrderID.FIELD);
+                }
+            }
+        } catch (FieldNotFound e) {
+            log.debug("OrderID not found in TradeCaptureReport", e);
+        }
+        return null;
+    }
+
+    /**
+     * 判断已接受的TradeCaptureReportRequestAck是否表示没有匹配的成交
+     * 带TotNumTradeReports时以其是否为0为准，不带时只有COMPLETED表示没有成交
+     */
+    public static boolean isNoTradesAck(TradeCaptureReportRequestAck ack) throws FieldNotFound {
+        if (ack.isSetTotNumTradeReports()) {
+            return ack.getTotNumTradeReports().getValue() == 0;
+        }
+        return ack.isSetTradeRequestStatus() && ack.getTradeRequestStatus().getValue() == TradeRequestStatus.COMPLETED;
+    }
+
+    private static void extractFields(FieldMap message, Map<String, String> fields) {
         if (message == null) {
             return;
         }
@@ -0,0 +1,415 @@
+package com.fixgateway.util;
+
+import org.quickfixj.CharsetSupport;
+import quickfix.field.ExecID;
+import quickfix.field.LastPx;
+import quickfix.field.LastQty;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TradeDate;
+import quickfix.field.TradeReportID;
+import quickfix.field.TradeRequestID;
+import quickfix.field.TransactTime;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 成交报告的堆外紧凑存储
+ * 报告以原始FIX字节追加写入直接内存slab，每条记录前是常用字段的偏移表，
+ * 通过可复用的View按偏移直接读取字段，不需要还原成QuickFIX/J的Message对象；
+ * 堆上只保留记录句柄，数据本身不参与GC扫描。
+ * 同一成交的新报告通过replace()取代旧记录，内容逐字节相同时不重复写入；被取代的记录在compact()时回收，
+ * clear()后整体复用已分配的slab
+ *
+ * 记录布局：[int 消息长度][int 偏移, int 长度] * 索引字段数 [消息字节]，偏移相对于消息起点，字段不存在时为-1
+ */
+public class OffHeapTradeReportStore {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    /**
+     * 建立偏移表的字段，View的访问方法按此顺序取下标
+     */
+    private static final int[] INDEXED_TAGS = {
+            TradeReportID.FIELD, TradeRequestID.FIELD, ExecID.FIELD, Symbol.FIELD, Side.FIELD,
+            LastQty.FIELD, LastPx.FIELD, TransactTime.FIELD, TradeDate.FIELD
+    };
+    private static final int TRADE_REPORT_ID = 0;
+    private static final int TRADE_REQUEST_ID = 1;
+    private static final int EXEC_ID = 2;
+    private static final int SYMBOL = 3;
+    private static final int SIDE = 4;
+    private static final int LAST_QTY = 5;
+    private static final int LAST_PX = 6;
+    private static final int TRANSACT_TIME = 7;
+    private static final int TRADE_DATE = 8;
+
+    private static final int HEADER_SIZE = Integer.BYTES + INDEXED_TAGS.length * 2 * Integer.BYTES;
+    private static final byte SOH = 1;
+
+    private final int slabSize;
+    private final Charset charset = CharsetSupport.getCharsetInstance();
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int currentSlab;
+    private int position;
+    private int count;
+
+    /**
+     * 上次clear/compact以来写入的记录字节数，含已被取代的记录
+     */
+    private long usedBytes;
+
+    /**
+     * 被取代记录占用的字节数
+     */
+    private long garbageBytes;
+
+    public OffHeapTradeReportStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize 单个slab的字节数，超过slab大小的报告单独分配
+     */
+    public OffHeapTradeReportStore(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * 追加一条报告
+     * @param rawMessage 原始FIX消息
+     * @return 记录句柄（高32位为slab下标，低32位为slab内偏移）
+     */
+    public synchronized long append(String rawMessage) {
+        return append(rawMessage.getBytes(charset));
+    }
+
+    /**
+     * 以新报告取代句柄对应的记录，与原记录的消息逐字节相同时不写入
+     * @param handle 被取代记录的句柄
+     * @param rawMessage 原始FIX消息
+     * @return 新记录的句柄，内容未变化时返回原句柄
+     */
+    public synchronized long replace(long handle, String rawMessage) {
+        byte[] message = rawMessage.getBytes(charset);
+        ByteBuffer slab = slabs.get((int) (handle >>> 32));
+        int start = (int) handle;
+        int length = slab.getInt(start);
+        if (length == message.length) {
+            ByteBuffer stored = slab.duplicate();
+            stored.limit(start + HEADER_SIZE + length);
+            stored.position(start + HEADER_SIZE);
+            if (stored.equals(ByteBuffer.wrap(message))) {
+                return handle;
+            }
+        }
+        garbageBytes += HEADER_SIZE + length;
+        count--;
+        return append(message);
+    }
+
+    /**
+     * 被取代记录不少于一个slab、且不少于仍在使用的记录时需要压缩
+     */
+    public synchronized boolean needsCompaction() {
+        return garbageBytes >= slabSize && garbageBytes >= usedBytes - garbageBytes;
+    }
+
+    /**
+     * 回收被取代的记录：按存储顺序把仍在使用的记录前移，更新handles中的句柄，并释放尾部不再使用的slab
+     * 调用方需保证handles包含全部仍在使用的句柄，且压缩期间没有通过旧句柄读取的View
+     * @param handles 仍在使用的记录句柄，压缩后原地更新
+     */
+    public synchronized <K> void compact(Map<K, Long> handles) {
+        if (slabs.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<K, Long>> live = new ArrayList<>(handles.entrySet());
+        live.sort(Map.Entry.comparingByValue());
+
+        // 目标位置不会越过记录的原位置，按顺序前移不会覆盖尚未移动的记录
+        int targetSlab = 0;
+        int targetPosition = 0;
+        long previousHandle = -1;
+        long previousTarget = -1;
+        int records = 0;
+        long bytes = 0;
+        for (Map.Entry<K, Long> entry : live) {
+            long handle = entry.getValue();
+            if (handle == previousHandle) {
+                handles.put(entry.getKey(), previousTarget);
+                continue;
+            }
+            ByteBuffer source = slabs.get((int) (handle >>> 32));
+            int start = (int) handle;
+            int recordSize = HEADER_SIZE + source.getInt(start);
+            while (targetPosition + recordSize > slabs.get(targetSlab).capacity()) {
+                targetSlab++;
+                targetPosition = 0;
+            }
+            long target = ((long) targetSlab << 32) | targetPosition;
+            if (target != handle) {
+                byte[] record = new byte[recordSize];
+                ByteBuffer from = source.duplicate();
+                from.position(start);
+                from.get(record);
+                ByteBuffer to = slabs.get(targetSlab).duplicate();
+                to.position(targetPosition);
+                to.put(record);
+            }
+            handles.put(entry.getKey(), target);
+            previousHandle = handle;
+            previousTarget = target;
+            targetPosition += recordSize;
+            records++;
+            bytes += recordSize;
+        }
+
+        while (slabs.size() > targetSlab + 1) {
+            slabs.remove(slabs.size() - 1);
+        }
+        currentSlab = targetSlab;
+        position = targetPosition;
+        count = records;
+        usedBytes = bytes;
+        garbageBytes = 0;
+    }
+
+    private long append(byte[] message) {
+        int recordSize = HEADER_SIZE + message.length;
+        ByteBuffer slab = slabFor(recordSize);
+        int start = position;
+
+        slab.putInt(start, message.length);
+        int[] offsets = new int[INDEXED_TAGS.length * 2];
+        indexFields(message, offsets);
+        for (int i = 0; i < offsets.length; i++) {
+            slab.putInt(start + Integer.BYTES * (i + 1), offsets[i]);
+        }
+        ByteBuffer body = slab.duplicate();
+        body.position(start + HEADER_SIZE);
+        body.put(message);
+
+        position += recordSize;
+        count++;
+        usedBytes += recordSize;
+        return ((long) currentSlab << 32) | start;
+    }
+
+    /**
+     * 将View定位到句柄对应的记录
+     * @param handle append返回的句柄
+     * @param view 复用的View，为null时新建
+     */
+    public View view(long handle, View view) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get((int) (handle >>> 32));
+        }
+        View target = view != null ? view : new View(charset);
+        target.slab = slab;
+        target.start = (int) handle;
+        return target;
+    }
+
+    /**
+     * 丢弃全部记录，已分配的slab保留复用，之前的句柄全部失效
+     */
+    public synchronized void clear() {
+        currentSlab = 0;
+        position = 0;
+        count = 0;
+        usedBytes = 0;
+        garbageBytes = 0;
+        // 为超大报告单独分配的slab不复用
+        slabs.removeIf(slab -> slab.capacity() != slabSize);
+    }
+
+    /**
+     * 仍在使用的记录数
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * 已分配的堆外字节数
+     */
+    public synchronized long getCapacityBytes() {
+        long capacity = 0;
+        for (ByteBuffer slab : slabs) {
+            capacity += slab.capacity();
+        }
+        return capacity;
+    }
+
+    private ByteBuffer slabFor(int recordSize) {
+        if (!slabs.isEmpty() && position + recordSize <= slabs.get(currentSlab).capacity()) {
+            return slabs.get(currentSlab);
+        }
+        int next = slabs.isEmpty() ? 0 : currentSlab + 1;
+        // 跳过容量不足的已有slab（clear后复用时）
+        while (next < slabs.size() && slabs.get(next).capacity() < recordSize) {
+            next++;
+        }
+        if (next == slabs.size()) {
+            slabs.add(ByteBuffer.allocateDirect(Math.max(slabSize, recordSize)));
+        }
+        currentSlab = next;
+        position = 0;
+        return slabs.get(currentSlab);
+    }
+
+    /**
+     * 扫描tag=value字段，记录索引字段第一次出现时值的偏移与长度（Side取NoSides中第一个组）
+     */
+    private static void indexFields(byte[] message, int[] offsets) {
+        for (int i = 0; i < offsets.length; i += 2) {
+            offsets[i] = -1;
+            offsets[i + 1] = 0;
+        }
+        int fieldStart = 0;
+        while (fieldStart < message.length) {
+            int tag = 0;
+            int i = fieldStart;
+            while (i < message.length && message[i] != '=') {
+                tag = tag * 10 + (message[i] - '0');
+                i++;
+            }
+            int valueStart = i + 1;
+            int valueEnd = valueStart;
+            while (valueEnd < message.length && message[valueEnd] != SOH) {
+                valueEnd++;
+            }
+            for (int t = 0; t < INDEXED_TAGS.length; t++) {
+                if (INDEXED_TAGS[t] == tag && offsets[t * 2] < 0) {
+                    offsets[t * 2] = valueStart;
+                    offsets[t * 2 + 1] = valueEnd - valueStart;
+                    break;
+                }
+            }
+            fieldStart = valueEnd + 1;
+        }
+    }
+
+    /**
+     * 记录的flyweight访问器，可通过view()重新定位后复用，不在线程间共享
+     */
+    public static class View {
+        private final Charset charset;
+        private ByteBuffer slab;
+        private int start;
+
+        private View(Charset charset) {
+            this.charset = charset;
+        }
+
+        public String getTradeReportID() {
+            return getString(TRADE_REPORT_ID);
+        }
+
+        public String getTradeRequestID() {
+            return getString(TRADE_REQUEST_ID);
+        }
+
+        public String getExecID() {
+            return getString(EXEC_ID);
+        }
+
+        public String getSymbol() {
+            return getString(SYMBOL);
+        }
+
+        /**
+         * @return FIX Side取值，未设置时返回0
+         */
+        public char getSide() {
+            int offset = valueOffset(SIDE);
+            return offset >= 0 && valueLength(SIDE) > 0 ? (char) slab.get(messageStart() + offset) : 0;
+        }
+
+        /**
+         * @return 未设置时返回NaN
+         */
+        public double getLastQty() {
+            return getDouble(LAST_QTY);
+        }
+
+        /**
+         * @return 未设置时返回NaN
+         */
+        public double getLastPx() {
+            return getDouble(LAST_PX);
+        }
+
+        /**
+         * @return FIX UTCTimestamp格式的原始值
+         */
+        public String getTransactTime() {
+            return getString(TRANSACT_TIME);
+        }
+
+        public String getTradeDate() {
+            return getString(TRADE_DATE);
+        }
+
+        /**
+         * 判断TradeReportID是否等于给定值，不创建字符串
+         */
+        public boolean hasTradeReportID(String tradeReportID) {
+            int offset = valueOffset(TRADE_REPORT_ID);
+            int length = valueLength(TRADE_REPORT_ID);
+            if (offset < 0 || length != tradeReportID.length()) {
+                return false;
+            }
+            int base = messageStart() + offset;
+            for (int i = 0; i < length; i++) {
+                if (slab.get(base + i) != tradeReportID.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 完整的原始FIX消息，用于还原为QuickFIX/J消息
+         */
+        public String getRawMessage() {
+            return decode(messageStart(), slab.getInt(start));
+        }
+
+        private String getString(int field) {
+            int offset = valueOffset(field);
+            return offset >= 0 ? decode(messageStart() + offset, valueLength(field)) : null;
+        }
+
+        private double getDouble(int field) {
+            String value = getString(field);
+            return value != null ? Double.parseDouble(value) : Double.NaN;
+        }
+
+        private int valueOffset(int field) {
+            return slab.getInt(start + Integer.BYTES * (field * 2 + 1));
+        }
+
+        private int valueLength(int field) {
+            return slab.getInt(start + Integer.BYTES * (field * 2 + 2));
+        }
+
+        private int messageStart() {
+            return start + HEADER_SIZE;
+        }
+
+        private String decode(int from, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer source = slab.duplicate();
+            source.position(from);
+            source.get(bytes);
+            return new String(bytes, charset);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.fixgateway.util;
+
+/**
+ * 令牌桶限流器
+ * 用于控制发往单个broker的请求速率，允许短时突发但长期速率不超过配置值
+ */
+public class TokenBucketRateLimiter {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param capacity 桶容量（允许的最大突发请求数）
+     */
+    public TokenBucketRateLimiter(double permitsPerSecond, double capacity) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, capacity);
+        this.availablePermits = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取一个令牌，令牌不足时立即返回false
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (availablePermits >= 1) {
+            availablePermits -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 距离下一个令牌可用的时间（纳秒），已有令牌时返回0
+     */
+    public synchronized long nanosToNextPermit() {
+        refill();
+        if (availablePermits >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - availablePermits) / permitsPerSecond * 1_000_000_000L);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000.0;
+        availablePermits = Math.min(capacity, availablePermits + elapsedSeconds * permitsPerSecond);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,156 @@
+package com.fixgateway.util;
+
+import com.fixgateway.dto.TradeCaptureResponse;
+import com.fixgateway.dto.TradeQueryResponse;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TradeCaptureResponse与TradeQueryResponse的Protobuf编码器
+ * 按src/main/proto/trade_capture.proto定义的字段编号直接写出wire格式，不依赖protoc生成代码
+ */
+public class TradeCaptureProtobufEncoder {
+
+    private TradeCaptureProtobufEncoder() {
+    }
+
+    public static void write(TradeCaptureResponse response, OutputStream out) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        if (response.isSuccess()) {
+            output.writeBool(1, true);
+        }
+        writeString(output, 2, response.getErrorMessage());
+        writeString(output, 3, response.getTradeRequestID());
+        writeString(output, 4, response.getTradeReportID());
+        if (response.getTotalNumTrades() != null) {
+            output.writeInt32(5, response.getTotalNumTrades());
+        }
+        writeTrades(output, 6, response.getTrades());
+        if (response.getFixFields() != null) {
+            for (Map.Entry<String, String> field : response.getFixFields().entrySet()) {
+                // map<int32, string>条目编码为key=1、value=2的嵌套消息
+                output.writeByteArray(7, encode(entry -> {
+                    entry.writeInt32(1, Integer.parseInt(field.getKey()));
+                    writeString(entry, 2, field.getValue());
+                }));
+            }
+        }
+        output.flush();
+    }
+
+    public static void write(TradeQueryResponse response, OutputStream out) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        if (response.isSuccess()) {
+            output.writeBool(1, true);
+        }
+        writeString(output, 2, response.getErrorMessage());
+        if (response.getTotal() != null) {
+            output.writeInt32(3, response.getTotal());
+        }
+        if (response.getOffset() != null) {
+            output.writeInt32(4, response.getOffset());
+        }
+        if (response.getLimit() != null) {
+            output.writeInt32(5, response.getLimit());
+        }
+        writeTrades(output, 6, response.getTrades());
+        output.flush();
+    }
+
+    private static void writeTrades(CodedOutputStream output, int fieldNumber, List<Map<String, Object>> trades)
+            throws IOException {
+        if (trades == null) {
+            return;
+        }
+        for (Map<String, Object> trade : trades) {
+            output.writeByteArray(fieldNumber, encode(message -> writeTrade(message, trade)));
+        }
+    }
+
+    private static void writeTrade(CodedOutputStream output, Map<String, Object> trade) throws IOException {
+        for (Map.Entry<String, Object> field : trade.entrySet()) {
+            Object value = field.getValue();
+            if (value == null) {
+                continue;
+            }
+            switch (field.getKey()) {
+                case "brokerId":
+                    writeString(output, 1, value.toString());
+                    break;
+                case "tradeReportID":
+                    writeString(output, 2, value.toString());
+                    break;
+                case "execID":
+                    writeString(output, 3, value.toString());
+                    break;
+                case "symbol":
+                    writeString(output, 4, value.toString());
+                    break;
+                case "side":
+                    writeString(output, 5, value.toString());
+                    break;
+                case "lastQty":
+                    output.writeDouble(6, ((Number) value).doubleValue());
+                    break;
+                case "lastPx":
+                    output.writeDouble(7, ((Number) value).doubleValue());
+                    break;
+                case "tradeDate":
+                    writeString(output, 8, value.toString());
+                    break;
+                case "transactTime":
+                    output.writeInt64(9, toEpochMillis(value));
+                    break;
+                case "orderID":
+                    writeString(output, 10, value.toString());
+                    break;
+                default:
+                    output.writeByteArray(15, encode(entry -> {
+                        writeString(entry, 1, field.getKey());
+                        writeString(entry, 2, value.toString());
+                    }));
+                    break;
+            }
+        }
+    }
+
+    private static long toEpochMillis(Object value) {
+        if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+        if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static void writeString(CodedOutputStream output, int fieldNumber, String value) throws IOException {
+        if (value != null) {
+            output.writeString(fieldNumber, value);
+        }
+    }
+
+    /**
+     * 将嵌套消息编码为字节数组，以length-delimited方式写入外层消息
+     */
+    private static byte[] encode(MessageWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        writer.write(output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface MessageWriter {
+        void write(CodedOutputStream output) throws IOException;
+    }
+}
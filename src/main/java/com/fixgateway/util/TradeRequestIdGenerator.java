@@ -0,0 +1,32 @@
+package com.fixgateway.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TradeRequestID生成器
+ * 以进程启动时间（base36）为前缀、单调递增计数器（base36）为后缀生成紧凑的ID，
+ * 同一进程内单调且唯一，进程重启后前缀不同；不依赖SecureRandom，生成开销只有一次原子自增
+ */
+public class TradeRequestIdGenerator {
+
+    private final String prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    public TradeRequestIdGenerator() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param epochMillis 前缀使用的时间戳
+     */
+    public TradeRequestIdGenerator(long epochMillis) {
+        this.prefix = Long.toString(epochMillis, 36) + '-';
+    }
+
+    /**
+     * 生成下一个TradeRequestID，形如"lk3x9q2a-1f"
+     */
+    public String next() {
+        return prefix.concat(Long.toString(counter.incrementAndGet(), 36));
+    }
+}
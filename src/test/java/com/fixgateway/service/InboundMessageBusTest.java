@@ -0,0 +1,238 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import quickfix.FieldNotFound;
+import quickfix.Message;
+import quickfix.SessionID;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InboundMessageBusTest {
+
+    private static final SessionID SESSION = new SessionID("FIX.4.4", "GATEWAY", "BROKER");
+    private static final int PUBLISHER_TAG = 5001;
+    private static final int SEQUENCE_TAG = 5002;
+
+    private InboundMessageBus bus;
+
+    @AfterEach
+    void stopBus() {
+        if (bus != null) {
+            bus.stop();
+        }
+    }
+
+    @Test
+    void consumersSeeEveryMessageOnceInPublishOrder() throws Exception {
+        int publishers = 4;
+        int messagesPerPublisher = 20_000;
+        RecordingHandler fast = new RecordingHandler("fast", publishers, 0);
+        RecordingHandler slow = new RecordingHandler("slow", publishers, 500);
+        bus = startBus(16, fast, slow);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            int publisher = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < messagesPerPublisher; i++) {
+                    bus.publish("broker1", SESSION, message(publisher, i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(60));
+        }
+
+        // 每条消息要么被处理、要么被计入跳过数，且同一发布方的消息按发布顺序到达
+        long total = (long) publishers * messagesPerPublisher;
+        for (RecordingHandler handler : Arrays.asList(fast, slow)) {
+            handler.awaitCount(total);
+            assertNull(handler.error.get(), handler.error.get());
+            assertEquals(total, handler.received.get() + handler.skipped.get());
+        }
+    }
+
+    @Test
+    void slowConsumerIsSkippedWithoutBlockingPublisher() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler slow = new RecordingHandler("slow", 1, 0) {
+            @Override
+            public void onMessage(String brokerId, SessionID sessionId, Message message) {
+                awaitQuietly(release);
+                super.onMessage(brokerId, sessionId, message);
+            }
+        };
+        bus = startBus(8, slow);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 1000; i++) {
+                bus.publish("broker1", SESSION, message(0, i));
+            }
+        });
+        release.countDown();
+
+        slow.awaitLastSequence(0, 999);
+        assertNull(slow.error.get(), slow.error.get());
+        assertTrue(slow.received.get() < 1000);
+        // 被覆盖的消息通过onMessagesSkipped通知消费者
+        assertTrue(slow.skipped.get() > 0);
+        assertEquals(1000, slow.received.get() + slow.skipped.get());
+    }
+
+    @Test
+    void idleConsumerParksUntilPublish() throws Exception {
+        RecordingHandler handler = new RecordingHandler("idle", 1, 0);
+        bus = startBus(16, handler);
+
+        Thread consumerThread = consumerThread("idle");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (consumerThread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Thread.State.WAITING, consumerThread.getState());
+
+        bus.publish("broker1", SESSION, message(0, 0));
+        handler.awaitLastSequence(0, 0);
+    }
+
+    @Test
+    void consumedSlotsDoNotRetainMessages() throws Exception {
+        RecordingHandler first = new RecordingHandler("first", 1, 0);
+        RecordingHandler second = new RecordingHandler("second", 1, 0);
+        bus = startBus(16, first, second);
+
+        WeakReference<Message> published = publishAndForget(bus, 0, 0);
+        first.awaitCount(1);
+        second.awaitCount(1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (published.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(published.get());
+    }
+
+    private static Thread consumerThread(String handlerName) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("inbound-bus-" + handlerName)) {
+                return thread;
+            }
+        }
+        throw new IllegalStateException("Consumer thread not found: " + handlerName);
+    }
+
+    private static WeakReference<Message> publishAndForget(InboundMessageBus bus, int publisher, int sequence) {
+        Message message = message(publisher, sequence);
+        bus.publish("broker1", SESSION, message);
+        return new WeakReference<>(message);
+    }
+
+    private static InboundMessageBus startBus(int bufferSize, InboundMessageHandler... handlers) {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.getEventBus().setBufferSize(bufferSize);
+        InboundMessageBus bus = new InboundMessageBus(brokerConfig, Arrays.asList(handlers));
+        bus.start();
+        return bus;
+    }
+
+    private static Message message(int publisher, int sequence) {
+        Message message = new Message();
+        message.setInt(PUBLISHER_TAG, publisher);
+        message.setInt(SEQUENCE_TAG, sequence);
+        return message;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 记录每个发布方收到的最后序号和跳过的消息数，序号必须递增
+     */
+    private static class RecordingHandler implements InboundMessageHandler {
+        private final String name;
+        private final int pauseEvery;
+        private final AtomicIntegerArray lastSequence;
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicReference<String> error = new AtomicReference<>();
+
+        private RecordingHandler(String name, int publishers, int pauseEvery) {
+            this.name = name;
+            this.pauseEvery = pauseEvery;
+            this.lastSequence = new AtomicIntegerArray(publishers);
+            for (int i = 0; i < publishers; i++) {
+                lastSequence.set(i, -1);
+            }
+        }
+
+        @Override
+        public void onMessage(String brokerId, SessionID sessionId, Message message) {
+            try {
+                int publisher = message.getInt(PUBLISHER_TAG);
+                int sequence = message.getInt(SEQUENCE_TAG);
+                int last = lastSequence.get(publisher);
+                if (sequence <= last) {
+                    error.compareAndSet(null, name + ": publisher " + publisher + " sequence " + sequence + " after " + last);
+                }
+                lastSequence.set(publisher, sequence);
+            } catch (FieldNotFound e) {
+                error.compareAndSet(null, name + ": " + e);
+            }
+            // 周期性暂停，让发布方追上并等待
+            if (pauseEvery > 0 && received.get() % pauseEvery == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void onMessagesSkipped(long count) {
+            skipped.addAndGet(count);
+        }
+
+        @Override
+        public String getHandlerName() {
+            return name;
+        }
+
+        private void awaitCount(long count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (received.get() + skipped.get() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+
+        private void awaitLastSequence(int publisher, int sequence) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (lastSequence.get(publisher) < sequence && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(sequence, lastSequence.get(publisher));
+        }
+    }
+}
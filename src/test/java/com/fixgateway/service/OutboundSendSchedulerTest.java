@@ -0,0 +1,62 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import com.fixgateway.config.FixSessionConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundSendSchedulerTest {
+
+    /**
+     * 未配置的broker按每秒5个请求限流，桶容量为5
+     */
+    private static final int BURST = 5;
+
+    private final OutboundSendScheduler scheduler = new OutboundSendScheduler(new FixSessionConfig(), new BrokerConfig());
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.stop();
+    }
+
+    @Test
+    void blockedSendDoesNotDelayOtherBrokers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blockedSendStarted = new CountDownLatch(1);
+        exhaustPermits("broker1");
+        // 令牌耗尽后的请求排队，由broker1的调度线程发送并一直阻塞
+        scheduler.submit("broker1", RequestLane.INTERACTIVE, () -> {
+            blockedSendStarted.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(blockedSendStarted.await(5, TimeUnit.SECONDS));
+
+        try {
+            CountDownLatch otherBrokerSent = new CountDownLatch(1);
+            exhaustPermits("broker2");
+            scheduler.submit("broker2", RequestLane.INTERACTIVE, otherBrokerSent::countDown);
+            assertTrue(otherBrokerSent.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private void exhaustPermits(String brokerId) {
+        for (int i = 0; i < BURST; i++) {
+            scheduler.submit(brokerId, RequestLane.INTERACTIVE, () -> { });
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
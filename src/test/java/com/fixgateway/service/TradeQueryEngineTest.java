@@ -0,0 +1,86 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import org.junit.jupiter.api.Test;
+import quickfix.field.ExecID;
+import quickfix.field.LastPx;
+import quickfix.field.LastQty;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TradeReportID;
+import quickfix.field.TradeReportTransType;
+import quickfix.field.TransactTime;
+import quickfix.fix44.TradeCaptureReport;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TradeQueryEngineTest {
+
+    private static final String BROKER = "broker1";
+    private static final LocalDateTime TRANSACT_TIME = LocalDateTime.now(ZoneOffset.UTC).withNano(0);
+    private static final Instant FROM = TRANSACT_TIME.minusHours(1).toInstant(ZoneOffset.UTC);
+    private static final Instant TO = TRANSACT_TIME.plusHours(1).toInstant(ZoneOffset.UTC);
+
+    private final TradeQueryEngine engine = new TradeQueryEngine(new BrokerConfig(), null);
+
+    @Test
+    void cancelRemovesTradeFromQueriesAndScans() {
+        engine.add(BROKER, report("T1", TradeReportTransType.NEW, 100));
+        engine.add(BROKER, report("T2", TradeReportTransType.NEW, 200));
+        assertEquals(2, engine.query(BROKER, null, null, null, null, 0, 10).getTotal());
+
+        engine.add(BROKER, report("T1", TradeReportTransType.CANCEL, 100));
+
+        TradeQueryEngine.QueryResult all = engine.query(BROKER, null, null, null, null, 0, 10);
+        assertEquals(1, all.getTotal());
+        assertEquals("T2", all.getTrades().get(0).get("tradeReportID"));
+        assertEquals(1, engine.query(null, "600000.SS", null, FROM, TO, 0, 10).getTotal());
+        assertEquals(1, engine.query(null, null, '1', null, null, 0, 10).getTotal());
+        assertEquals(1, scanCount());
+
+        // 重复投递的撤销不影响其他成交
+        engine.add(BROKER, report("T1", TradeReportTransType.CANCEL, 100));
+        assertEquals(1, scanCount());
+    }
+
+    @Test
+    void replaceKeepsLatestVersionOnly() {
+        engine.add(BROKER, report("T1", TradeReportTransType.NEW, 100));
+        engine.add(BROKER, report("T1", TradeReportTransType.REPLACE, 150));
+
+        TradeQueryEngine.QueryResult all = engine.query(BROKER, null, null, null, null, 0, 10);
+        assertEquals(1, all.getTotal());
+        assertEquals(150.0, all.getTrades().get(0).get("lastQty"));
+        assertEquals(1, scanCount());
+    }
+
+    private int scanCount() {
+        TradeQueryEngine.ScanCursor cursor = new TradeQueryEngine.ScanCursor();
+        TradeQueryEngine.TradeBatch batch = new TradeQueryEngine.TradeBatch(16);
+        int total = 0;
+        int rows;
+        while ((rows = engine.scan(BROKER, FROM, TO, cursor, batch)) > 0) {
+            total += rows;
+        }
+        return total;
+    }
+
+    private static TradeCaptureReport report(String tradeReportID, int transType, double qty) {
+        TradeCaptureReport report = new TradeCaptureReport();
+        report.set(new TradeReportID(tradeReportID));
+        report.set(new TradeReportTransType(transType));
+        report.set(new ExecID("E-" + tradeReportID + "-" + transType));
+        report.set(new Symbol("600000.SS"));
+        report.set(new LastQty(qty));
+        report.set(new LastPx(10.5));
+        report.set(new TransactTime(TRANSACT_TIME));
+        TradeCaptureReport.NoSides side = new TradeCaptureReport.NoSides();
+        side.set(new Side('1'));
+        report.addGroup(side);
+        return report;
+    }
+}
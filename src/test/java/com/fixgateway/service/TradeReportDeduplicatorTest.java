@@ -0,0 +1,84 @@
+package com.fixgateway.service;
+
+import com.fixgateway.config.BrokerConfig;
+import org.junit.jupiter.api.Test;
+import quickfix.field.ExecID;
+import quickfix.field.PossDupFlag;
+import quickfix.field.TradeReportID;
+import quickfix.field.TradeRequestID;
+import quickfix.fix44.TradeCaptureReport;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TradeReportDeduplicatorTest {
+
+    private static final String BROKER = "broker1";
+
+    @Test
+    void exactWindowHitIsDropped() throws Exception {
+        TradeReportDeduplicator deduplicator = deduplicator(100);
+
+        assertFalse(deduplicator.isDuplicate(BROKER, report("T1", "R1", false)));
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T1", "R1", false)));
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T1", "R1", true)));
+        // 同一成交被另一个请求再次查询时不是重复
+        assertFalse(deduplicator.isDuplicate(BROKER, report("T1", "R2", false)));
+    }
+
+    @Test
+    void unseenResendIsDelivered() throws Exception {
+        TradeReportDeduplicator deduplicator = deduplicator(10);
+        for (int i = 0; i < 900; i++) {
+            assertFalse(deduplicator.isDuplicate(BROKER, report("T" + i, "R1", false)));
+        }
+
+        // 序号缺口补发的报告带PossDupFlag=Y，但网关从未收到过
+        for (int i = 900; i < 950; i++) {
+            assertFalse(deduplicator.isDuplicate(BROKER, report("T" + i, "R1", true)));
+        }
+        // 仍在精确窗口内的报告照常丢弃
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T949", "R1", true)));
+    }
+
+    @Test
+    void duplicatesAreDroppedForTheWholeExactWindow() throws Exception {
+        TradeReportDeduplicator deduplicator = deduplicator(1_000);
+        for (int i = 0; i < 1_000; i++) {
+            assertFalse(deduplicator.isDuplicate(BROKER, report("T" + i, "R1", false)));
+        }
+
+        // 窗口内最早的报告仍被识别
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T0", "R1", true)));
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T999", "R1", true)));
+    }
+
+    @Test
+    void duplicatesOlderThanTheExactWindowAreDelivered() throws Exception {
+        TradeReportDeduplicator deduplicator = deduplicator(4);
+        for (int i = 0; i < 6; i++) {
+            assertFalse(deduplicator.isDuplicate(BROKER, report("T" + i, "R1", false)));
+        }
+
+        // T0、T1已被挤出窗口
+        assertFalse(deduplicator.isDuplicate(BROKER, report("T0", "R1", true)));
+        assertTrue(deduplicator.isDuplicate(BROKER, report("T5", "R1", true)));
+    }
+
+    private static TradeReportDeduplicator deduplicator(int exactWindowSize) {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.getDedup().setExactWindowSize(exactWindowSize);
+        return new TradeReportDeduplicator(brokerConfig);
+    }
+
+    private static TradeCaptureReport report(String tradeReportID, String tradeRequestID, boolean possDup) {
+        TradeCaptureReport report = new TradeCaptureReport();
+        report.set(new TradeReportID(tradeReportID));
+        report.set(new TradeRequestID(tradeRequestID));
+        report.set(new ExecID("E-" + tradeReportID));
+        if (possDup) {
+            report.getHeader().setField(new PossDupFlag(true));
+        }
+        return report;
+    }
+}
@@ -0,0 +1,108 @@
+package com.fixgateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapTradeReportStoreTest {
+
+    private static final int SLAB_SIZE = 4096;
+    private static final int TRADES = 200;
+
+    @Test
+    void identicalSnapshotsAreNotAppended() {
+        OffHeapTradeReportStore store = new OffHeapTradeReportStore(SLAB_SIZE);
+        Map<String, Long> handles = new HashMap<>();
+        snapshot(store, handles, 1, false);
+        long capacity = store.getCapacityBytes();
+        Map<String, Long> firstHandles = new HashMap<>(handles);
+
+        for (int i = 0; i < 20; i++) {
+            snapshot(store, handles, 1, false);
+        }
+
+        assertEquals(capacity, store.getCapacityBytes());
+        assertEquals(TRADES, store.getCount());
+        assertEquals(firstHandles, handles);
+        assertFalse(store.needsCompaction());
+    }
+
+    @Test
+    void repeatedSnapshotsDoNotGrowCapacity() {
+        OffHeapTradeReportStore store = new OffHeapTradeReportStore(SLAB_SIZE);
+        Map<String, Long> handles = new HashMap<>();
+        // 每次快照的报告头部（MsgSeqNum、TradeRequestID）都不同，旧记录全部被取代
+        for (int snapshot = 1; snapshot <= 5; snapshot++) {
+            snapshot(store, handles, snapshot, true);
+        }
+        long capacity = store.getCapacityBytes();
+
+        for (int snapshot = 6; snapshot <= 100; snapshot++) {
+            snapshot(store, handles, snapshot, true);
+            assertTrue(store.getCapacityBytes() <= capacity,
+                    "snapshot " + snapshot + " grew capacity to " + store.getCapacityBytes());
+        }
+
+        assertEquals(TRADES, store.getCount());
+        OffHeapTradeReportStore.View view = null;
+        for (int i = 0; i < TRADES; i++) {
+            view = store.view(handles.get(tradeReportID(i)), view);
+            assertEquals(message(i, 100), view.getRawMessage());
+            assertTrue(view.hasTradeReportID(tradeReportID(i)));
+            assertEquals("600000.SS", view.getSymbol());
+        }
+    }
+
+    @Test
+    void compactionKeepsRecordsInOversizedSlabs() {
+        OffHeapTradeReportStore store = new OffHeapTradeReportStore(256);
+        Map<String, Long> handles = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("memo-");
+        }
+        String large = message(0, 1) + "58=" + text + '\u0001';
+        handles.put("large", store.append(large));
+        snapshot(store, handles, 1, true);
+        snapshot(store, handles, 2, true);
+
+        store.compact(handles);
+
+        assertEquals(TRADES + 1, store.getCount());
+        assertEquals(large, store.view(handles.get("large"), null).getRawMessage());
+        for (int i = 0; i < TRADES; i++) {
+            assertEquals(message(i, 2), store.view(handles.get(tradeReportID(i)), null).getRawMessage());
+        }
+    }
+
+    /**
+     * 按LocalTradeStore的方式写入一次快照
+     */
+    private static void snapshot(OffHeapTradeReportStore store, Map<String, Long> handles, int snapshot,
+                                 boolean compact) {
+        for (int i = 0; i < TRADES; i++) {
+            String tradeReportID = tradeReportID(i);
+            String raw = message(i, snapshot);
+            Long previous = handles.get(tradeReportID);
+            handles.put(tradeReportID, previous != null ? store.replace(previous, raw) : store.append(raw));
+            if (compact && store.needsCompaction()) {
+                store.compact(handles);
+            }
+        }
+    }
+
+    private static String tradeReportID(int trade) {
+        return "TRD-" + trade;
+    }
+
+    private static String message(int trade, int snapshot) {
+        return "8=FIX.4.4\u00019=200\u000135=AE\u000134=" + (snapshot * TRADES + trade)
+                + "\u0001568=SNAP-" + snapshot + "\u0001571=" + tradeReportID(trade)
+                + "\u000117=EXEC-" + trade + "\u000155=600000.SS\u000154=1\u000132=100\u000131=10.5\u0001";
+    }
+}
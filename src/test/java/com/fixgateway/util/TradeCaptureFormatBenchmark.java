@@ -0,0 +1,256 @@
+package com.fixgateway.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fixgateway.dto.TradeCaptureResponse;
+import com.fixgateway.dto.TradeQueryResponse;
+import com.google.protobuf.UnknownFieldSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 响应编码格式对比
+ * 对单笔成交响应（/api/trade-capture）和100笔成交的查询分页（/api/trades），分别测量JSON、CBOR、Smile、Protobuf
+ * 在不压缩和gzip压缩下的载荷大小与单次编码、解码耗时。Protobuf没有生成的消息类，解码按wire格式解析为UnknownFieldSet。
+ * 不随测试执行，需要时直接运行main方法：
+ * java -cp target/test-classes:target/classes:依赖 com.fixgateway.util.TradeCaptureFormatBenchmark [每项测量毫秒数]
+ */
+public class TradeCaptureFormatBenchmark {
+
+    private static final int WARMUP_MILLIS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        long measureMillis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        ObjectMapper json = JsonMapper.builder().findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        ObjectMapper cbor = CBORMapper.builder().findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        ObjectMapper smile = SmileMapper.builder().findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+
+        TradeCaptureResponse single = singleTradeResponse();
+        TradeQueryResponse page = queryPage(100);
+        List<Format> formats = new ArrayList<>();
+        formats.add(jackson("JSON", json, single, page));
+        formats.add(jackson("CBOR", cbor, single, page));
+        formats.add(jackson("Smile", smile, single, page));
+        formats.add(new Format("Protobuf",
+                out -> TradeCaptureProtobufEncoder.write(single, out),
+                out -> TradeCaptureProtobufEncoder.write(page, out),
+                in -> UnknownFieldSet.parseFrom(in),
+                in -> UnknownFieldSet.parseFrom(in)));
+
+        System.out.printf("%-10s %-5s %-8s %9s %12s %12s%n", "payload", "gzip", "format", "bytes", "encode(us)", "decode(us)");
+        for (boolean singlePayload : new boolean[]{true, false}) {
+            for (boolean gzip : new boolean[]{false, true}) {
+                for (Format format : formats) {
+                    Writer writer = singlePayload ? format.singleWriter : format.pageWriter;
+                    Reader reader = singlePayload ? format.singleReader : format.pageReader;
+                    Result result = measure(writer, reader, gzip, measureMillis);
+                    System.out.printf("%-10s %-5s %-8s %9d %12.2f %12.2f%n", singlePayload ? "single" : "page-100",
+                            gzip ? "yes" : "no", format.name, result.bytes, result.encodeMicros, result.decodeMicros);
+                }
+            }
+        }
+    }
+
+    private static Format jackson(String name, ObjectMapper mapper, TradeCaptureResponse single, TradeQueryResponse page) {
+        return new Format(name,
+                out -> mapper.writeValue(out, single),
+                out -> mapper.writeValue(out, page),
+                in -> mapper.readValue(in, TradeCaptureResponse.class),
+                in -> mapper.readValue(in, TradeQueryResponse.class));
+    }
+
+    private static Result measure(Writer writer, Reader reader, boolean gzip, long measureMillis) throws IOException {
+        byte[] encoded = encode(writer, gzip);
+        Result result = new Result();
+        result.bytes = encoded.length;
+
+        // 预热后按固定时长测量平均耗时
+        timeEncode(writer, gzip, WARMUP_MILLIS);
+        result.encodeMicros = timeEncode(writer, gzip, measureMillis);
+        timeDecode(reader, encoded, gzip, WARMUP_MILLIS);
+        result.decodeMicros = timeDecode(reader, encoded, gzip, measureMillis);
+        return result;
+    }
+
+    private static double timeEncode(Writer writer, boolean gzip, long millis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long start = System.nanoTime();
+        long operations = 0;
+        long sink = 0;
+        do {
+            sink += encode(writer, gzip).length;
+            operations++;
+        } while (System.nanoTime() < deadline);
+        consume(sink);
+        return (System.nanoTime() - start) / 1000.0 / operations;
+    }
+
+    private static double timeDecode(Reader reader, byte[] encoded, boolean gzip, long millis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long start = System.nanoTime();
+        long operations = 0;
+        long sink = 0;
+        do {
+            InputStream in = new ByteArrayInputStream(encoded);
+            try (InputStream source = gzip ? new GZIPInputStream(in) : in) {
+                sink += reader.read(source).hashCode();
+            }
+            operations++;
+        } while (System.nanoTime() < deadline);
+        consume(sink);
+        return (System.nanoTime() - start) / 1000.0 / operations;
+    }
+
+    private static byte[] encode(Writer writer, boolean gzip) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        if (gzip) {
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                writer.write(out);
+            }
+        } else {
+            writer.write(bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 防止计算结果被当作死代码消除
+     */
+    private static void consume(long sink) {
+        if (sink == 42) {
+            System.out.print("");
+        }
+    }
+
+    /**
+     * 按FixMessageConverter.toTradeCaptureResponse的输出构造的单笔成交响应，含完整的原始FIX字段
+     */
+    private static TradeCaptureResponse singleTradeResponse() {
+        Map<String, Object> trade = new HashMap<>();
+        trade.put("symbol", "600000.SS");
+        trade.put("side", '1');
+        trade.put("lastQty", 1500.0);
+        trade.put("lastPx", 10.37);
+        trade.put("tradeDate", "20241015");
+        trade.put("transactTime", LocalDateTime.of(2024, 10, 15, 9, 31, 12, 345_000_000));
+        trade.put("execID", "EXEC-20241015-000123456");
+        trade.put("orderID", "ORD-20241015-000098765");
+
+        Map<String, String> fixFields = new HashMap<>();
+        fixFields.put("8", "FIX.4.4");
+        fixFields.put("9", "412");
+        fixFields.put("35", "AE");
+        fixFields.put("34", "18234");
+        fixFields.put("49", "BROKER1");
+        fixFields.put("56", "GATEWAY");
+        fixFields.put("52", "20241015-09:31:12.391");
+        fixFields.put("568", "TCR-1728984672391-42");
+        fixFields.put("571", "TRD-20241015-000123456");
+        fixFields.put("748", "1");
+        fixFields.put("912", "Y");
+        fixFields.put("17", "EXEC-20241015-000123456");
+        fixFields.put("150", "F");
+        fixFields.put("570", "N");
+        fixFields.put("55", "600000.SS");
+        fixFields.put("32", "1500");
+        fixFields.put("31", "10.37");
+        fixFields.put("75", "20241015");
+        fixFields.put("60", "20241015-09:31:12.345");
+        fixFields.put("552", "1");
+        fixFields.put("54", "1");
+        fixFields.put("37", "ORD-20241015-000098765");
+        fixFields.put("1", "ACC-7788");
+        fixFields.put("10", "173");
+
+        List<Map<String, Object>> trades = new ArrayList<>();
+        trades.add(trade);
+        return TradeCaptureResponse.builder()
+                .success(true)
+                .tradeRequestID("TCR-1728984672391-42")
+                .tradeReportID("TRD-20241015-000123456")
+                .totalNumTrades(1)
+                .trades(trades)
+                .fixFields(fixFields)
+                .build();
+    }
+
+    /**
+     * 按TradeQueryEngine.query的输出构造的查询分页
+     */
+    private static TradeQueryResponse queryPage(int size) {
+        String[] symbols = {"600000.SS", "0700.HK", "AAPL", "MSFT", "IBM"};
+        LocalDateTime base = LocalDateTime.of(2024, 10, 15, 9, 30);
+        List<Map<String, Object>> trades = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> trade = new LinkedHashMap<>();
+            trade.put("brokerId", i % 3 == 0 ? "broker1" : "broker2");
+            trade.put("tradeReportID", String.format("TRD-20241015-%09d", 123456 + i));
+            trade.put("symbol", symbols[i % symbols.length]);
+            trade.put("side", i % 2 == 0 ? '1' : '2');
+            trade.put("lastQty", 100.0 * (1 + i % 50));
+            trade.put("lastPx", 10 + (i % 1000) / 100.0);
+            trade.put("tradeDate", "20241015");
+            trade.put("transactTime", base.plusNanos(i * 1_234_000_000L));
+            trade.put("execID", String.format("EXEC-20241015-%09d", 123456 + i));
+            trades.add(trade);
+        }
+        return TradeQueryResponse.builder()
+                .success(true)
+                .total(18_437)
+                .offset(0)
+                .limit(size)
+                .trades(trades)
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Reader {
+        Object read(InputStream in) throws IOException;
+    }
+
+    private static class Format {
+        private final String name;
+        private final Writer singleWriter;
+        private final Writer pageWriter;
+        private final Reader singleReader;
+        private final Reader pageReader;
+
+        private Format(String name, Writer singleWriter, Writer pageWriter, Reader singleReader, Reader pageReader) {
+            this.name = name;
+            this.singleWriter = singleWriter;
+            this.pageWriter = pageWriter;
+            this.singleReader = singleReader;
+            this.pageReader = pageReader;
+        }
+    }
+
+    private static class Result {
+        private int bytes;
+        private double encodeMicros;
+        private double decodeMicros;
+    }
+}